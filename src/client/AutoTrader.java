@@ -42,6 +42,7 @@ public class AutoTrader implements Runnable {
                     //random instrument
                     FinancialInstrument fi = snapshot.get(rnd.nextInt(snapshot.size()));
                     String symbol = fi.getSymbol();
+                    double lot = fi.getLotSize();
 
                     // Refresh current price
                     List<FinancialInstrument> current = service.getMarketSnapshot();
@@ -59,37 +60,34 @@ public class AutoTrader implements Runnable {
                         double priceMod = 1.0 + (rnd.nextDouble() * 0.02); // up to 2%
                         double price = currentPrice * priceMod;
                         double maxSpend = acc.getCashBalance() * (0.01 + rnd.nextDouble() * 0.05); // 1-6% koliko moze da potrosi
-                        double qty = Math.max(0.0001, maxSpend / price); //koliko coina kupuje
-                        qty = Math.round(qty * 10000.0) / 10000.0; //na 4 decimale 
+                        double qty = Math.max(lot, roundToLot(maxSpend / price, lot)); //koliko coina kupuje
 
                         if (acc.getCashBalance() > price * qty && price * qty > 1.0) {
                             String result = service.placeBuyOrder(clientId, symbol, price, qty);
-                            if (result.equals("OK")) {
+                            if (result.startsWith("OK")) {
                                 System.out.printf("[AutoTrader:%s] BUY %s: %.4f @ %.4f%n", botName, symbol, qty, price);
                             }
                         }
                     } else {
                         // Sell if we have holdings
                         double holding = acc.getHolding(symbol);
-                        if (holding > 0.0001) {
-                            double sellQty = holding * (0.1 + rnd.nextDouble() * 0.4); // sell 10-50%
-                            sellQty = Math.round(sellQty * 10000.0) / 10000.0;
-                            if (sellQty < 0.0001) sellQty = holding;
+                        if (holding >= lot) {
+                            double sellQty = roundToLot(holding * (0.1 + rnd.nextDouble() * 0.4), lot); // sell 10-50%
+                            if (sellQty < lot) sellQty = holding;
 
                             double priceMod = 1.0 - (rnd.nextDouble() * 0.02);
                             double price = currentPrice * priceMod;
 
-                            if (sellQty > 0.0001) {
+                            if (sellQty >= lot) {
                                 String result = service.placeSellOrder(clientId, symbol, price, sellQty);
-                                if (result.equals("OK")) {
+                                if (result.startsWith("OK")) {
                                     System.out.printf("[AutoTrader:%s] SELL %s: %.4f @ %.4f%n", botName, symbol, sellQty, price);
                                 }
                             }
                         } else {
                             // No holdings
                             double price = currentPrice * 0.99;
-                            double qty = Math.max(0.0001, (acc.getCashBalance() * 0.01) / price);
-                            qty = Math.round(qty * 10000.0) / 10000.0;
+                            double qty = Math.max(lot, roundToLot((acc.getCashBalance() * 0.01) / price, lot));
                             if (acc.getCashBalance() > price * qty && price * qty > 1.0) {
                                 service.placeBuyOrder(clientId, symbol, price, qty);
                             }
@@ -111,4 +109,9 @@ public class AutoTrader implements Runnable {
             System.err.println("[AutoTrader:" + botName + "] Fatal error: " + e.getMessage());
         }
     }
+
+    // Server only accepts whole lots, round down so we never ask for more than we have
+    private static double roundToLot(double qty, double lot) {
+        return Math.floor(qty / lot + 1e-9) * lot;
+    }
 }
@@ -0,0 +1,83 @@
+package client;
+
+import common.DepthUpdate;
+import common.FeedProtocol;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Keeps an OrderBookMirror of the given symbols current over the binary TCP feed. Asks
+ * for depth only (the price subscription is narrowed to the same symbols) and requests a
+ * new snapshot of a book whenever the mirror reports a missed delta. onChange is called
+ * with the symbol after every frame that touched its book.
+ */
+public class DepthFeedReceiver implements Runnable {
+
+    private final String host;
+    private final int port;
+    private final List<String> symbols;
+    private final OrderBookMirror mirror;
+    private final Consumer<String> onChange;
+    private Socket socket;
+    private DataOutputStream out;
+    private volatile boolean running = true;
+
+    public DepthFeedReceiver(String host, int port, List<String> symbols, OrderBookMirror mirror, Consumer<String> onChange) {
+        this.host = host;
+        this.port = port;
+        this.symbols = symbols;
+        this.mirror = mirror;
+        this.onChange = onChange;
+    }
+
+    @Override
+    public void run() {
+        try {
+            socket = new Socket(host, port);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            FeedProtocol.writeHandshake(out);
+            send("SUBSCRIBE:" + String.join(",", symbols));
+            send("DEPTH:" + String.join(",", symbols));
+            System.out.println("[DepthReceiver] Connected. Watching books of: " + symbols);
+
+            FeedProtocol.Decoder decoder = new FeedProtocol.Decoder(
+                    new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+            while (running) {
+                decoder.readFrame();
+                Set<String> changed = new LinkedHashSet<>();
+                for (DepthUpdate update : decoder.getDepthUpdates()) {
+                    if (!mirror.apply(update)) {
+                        System.out.println("[DepthReceiver] Missed a delta of " + update.getSymbol() + ", resyncing");
+                        send("DEPTH:" + update.getSymbol());
+                    }
+                    changed.add(update.getSymbol());
+                }
+                if (onChange != null) changed.forEach(onChange);
+            }
+        } catch (EOFException | java.net.SocketException e) {
+            if (running) System.out.println("[DepthReceiver] Connection closed.");
+        } catch (IOException e) {
+            System.err.println("[DepthReceiver] Error: " + e.getMessage());
+        } finally {
+            disconnect();
+        }
+    }
+
+    private synchronized void send(String command) throws IOException {
+        out.writeUTF(command);
+        out.flush();
+    }
+
+    public void disconnect() {
+        running = false;
+        try {
+            if (out != null) send("DISCONNECT");
+        } catch (IOException ignored) {}
+        try { if (socket != null) socket.close(); } catch (IOException ignored) {}
+    }
+}
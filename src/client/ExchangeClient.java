@@ -4,12 +4,17 @@ import common.*;
 
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 public class ExchangeClient {
 
     private static final String HOST = "localhost";
     private static final int RMI_PORT = 1099;
+    private static final int BOOK_LEVELS = 10;
+    private static final DateTimeFormatter CANDLE_INPUT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final int TRADE_PAGE = 50;
 
     private ExchangeService service;
     private int clientId;
@@ -47,7 +52,10 @@ public class ExchangeClient {
             System.out.println("5. Place Sell Order");
             System.out.println("6. View My Account");
             System.out.println("7. View Trade History");
-            System.out.println("8. Exit");
+            System.out.println("8. Cancel Order");
+            System.out.println("9. Amend Order");
+            System.out.println("10. View Candles");
+            System.out.println("0. Exit");
             System.out.print("Choice: ");
 
             String choice = scanner.nextLine().trim();
@@ -60,7 +68,10 @@ public class ExchangeClient {
                 case "5": placeSellOrder(); break;
                 case "6": viewAccount(); break;
                 case "7": viewTradeHistory(); break;
-                case "8": running = false; break;
+                case "8": cancelOrder(); break;
+                case "9": amendOrder(); break;
+                case "10": viewCandles(); break;
+                case "0": running = false; break;
                 default:  System.out.println("Invalid choice.");
             }
         }
@@ -72,9 +83,10 @@ public class ExchangeClient {
     private void viewSnapshot() throws Exception {
         List<FinancialInstrument> snapshot = service.getMarketSnapshot();
         System.out.println("\n" + ConsoleColors.BOLD + ConsoleColors.CYAN +
-                String.format("%-6s %-18s %14s %12s", "SYMBOL", "NAME", "PRICE (USD)", "CHANGE") +
+                String.format("%-6s %-18s %14s %12s %14s %14s %14s", "SYMBOL", "NAME", "PRICE (USD)", "CHANGE",
+                        "24H HIGH", "24H LOW", "24H VOLUME") +
                 ConsoleColors.RESET);
-        System.out.println(ConsoleColors.CYAN + "─".repeat(55) + ConsoleColors.RESET);
+        System.out.println(ConsoleColors.CYAN + "─".repeat(100) + ConsoleColors.RESET);
 
         for (FinancialInstrument fi : snapshot) {
             double change = fi.getChangeFromOpen();
@@ -85,11 +97,12 @@ public class ExchangeClient {
                     String.format("%,.4f", fi.getCurrentPrice()) :
                     String.format("%.6f", fi.getCurrentPrice());
 
-            System.out.printf("%-6s %-18s %14s %12s%n",
+            System.out.printf("%-6s %-18s %14s %12s %14.4f %14.4f %14.4f%n",
                     ConsoleColors.BOLD + fi.getSymbol() + ConsoleColors.RESET,
                     fi.getName(),
                     ConsoleColors.WHITE + priceStr + ConsoleColors.RESET,
-                    ConsoleColors.colorize(change, changeStr));
+                    ConsoleColors.colorize(change, changeStr),
+                    fi.getHigh24h(), fi.getLow24h(), fi.getVolume24h());
         }
     }
 
@@ -133,27 +146,24 @@ public class ExchangeClient {
         System.out.print("Enter symbol: ");
         String symbol = scanner.nextLine().trim().toUpperCase();
 
-        List<Order> bids = service.getBidOrders(symbol);
-        List<Order> asks = service.getAskOrders(symbol);
+        MarketDepth depth = service.getDepth(symbol, BOOK_LEVELS);
 
         System.out.println("\n" + ConsoleColors.BOLD + "ORDER BOOK: " + symbol + " " + ConsoleColors.RESET);
 
         System.out.println(ConsoleColors.GREEN + ConsoleColors.BOLD +
-                String.format("%-5s %-15s %-15s", "#", "BID PRICE", "QUANTITY") + ConsoleColors.RESET);
+                String.format("%-5s %-15s %-15s %-8s", "#", "BID PRICE", "QUANTITY", "ORDERS") + ConsoleColors.RESET);
         int i = 1;
-        for (Order o : bids) {
-            System.out.printf(ConsoleColors.GREEN + "%-5d %-15.4f %-15.4f%n" + ConsoleColors.RESET,
-                    i++, o.getPrice(), o.getRemainingQuantity());
-            if (i > 10) { System.out.println("(more)"); break; }
+        for (DepthLevel l : depth.getBids()) {
+            System.out.printf(ConsoleColors.GREEN + "%-5d %-15.4f %-15.4f %-8d%n" + ConsoleColors.RESET,
+                    i++, l.getPrice(), l.getQuantity(), l.getOrderCount());
         }
 
         System.out.println(ConsoleColors.RED + ConsoleColors.BOLD +
-                String.format("%-5s %-15s %-15s", "#", "ASK PRICE", "QUANTITY") + ConsoleColors.RESET);
+                String.format("%-5s %-15s %-15s %-8s", "#", "ASK PRICE", "QUANTITY", "ORDERS") + ConsoleColors.RESET);
         i = 1;
-        for (Order o : asks) {
-            System.out.printf(ConsoleColors.RED + "%-5d %-15.4f %-15.4f%n" + ConsoleColors.RESET,
-                    i++, o.getPrice(), o.getRemainingQuantity());
-            if (i > 10) { System.out.println("(more)"); break; }
+        for (DepthLevel l : depth.getAsks()) {
+            System.out.printf(ConsoleColors.RED + "%-5d %-15.4f %-15.4f %-8d%n" + ConsoleColors.RESET,
+                    i++, l.getPrice(), l.getQuantity(), l.getOrderCount());
         }
     }
 
@@ -166,8 +176,9 @@ public class ExchangeClient {
         double qty = Double.parseDouble(scanner.nextLine().trim());
 
         String result = service.placeBuyOrder(clientId, symbol, price, qty);
-        if (result.equals("OK")) {
-            System.out.println(ConsoleColors.GREEN + "Buy order placed successfully!" + ConsoleColors.RESET);
+        if (result.startsWith("OK")) {
+            System.out.println(ConsoleColors.GREEN + "Buy order placed successfully! Order ID: "
+                    + result.substring(3) + ConsoleColors.RESET);
         } else {
             System.out.println(ConsoleColors.RED + "Error: " + result + ConsoleColors.RESET);
         }
@@ -182,8 +193,37 @@ public class ExchangeClient {
         double qty = Double.parseDouble(scanner.nextLine().trim());
 
         String result = service.placeSellOrder(clientId, symbol, price, qty);
+        if (result.startsWith("OK")) {
+            System.out.println(ConsoleColors.GREEN + "Sell order placed successfully! Order ID: "
+                    + result.substring(3) + ConsoleColors.RESET);
+        } else {
+            System.out.println(ConsoleColors.RED + "Error: " + result + ConsoleColors.RESET);
+        }
+    }
+
+    private void cancelOrder() throws Exception {
+        System.out.print("Order ID: ");
+        long orderId = Long.parseLong(scanner.nextLine().trim());
+
+        String result = service.cancelOrder(clientId, orderId);
         if (result.equals("OK")) {
-            System.out.println(ConsoleColors.GREEN + "Sell order placed successfully!" + ConsoleColors.RESET);
+            System.out.println(ConsoleColors.GREEN + "Order cancelled." + ConsoleColors.RESET);
+        } else {
+            System.out.println(ConsoleColors.RED + "Error: " + result + ConsoleColors.RESET);
+        }
+    }
+
+    private void amendOrder() throws Exception {
+        System.out.print("Order ID: ");
+        long orderId = Long.parseLong(scanner.nextLine().trim());
+        System.out.print("New price (USD): ");
+        double price = Double.parseDouble(scanner.nextLine().trim());
+        System.out.print("New quantity: ");
+        double qty = Double.parseDouble(scanner.nextLine().trim());
+
+        String result = service.amendOrder(clientId, orderId, price, qty);
+        if (result.equals("OK")) {
+            System.out.println(ConsoleColors.GREEN + "Order amended." + ConsoleColors.RESET);
         } else {
             System.out.println(ConsoleColors.RED + "Error: " + result + ConsoleColors.RESET);
         }
@@ -212,15 +252,53 @@ public class ExchangeClient {
         String symbol = scanner.nextLine().trim().toUpperCase();
         System.out.print("Day (yyyy-MM-dd): ");
         String day = scanner.nextLine().trim();
-
-        List<Trade> trades = service.getTradesForDay(symbol, day);
+        System.out.print("From (HH:mm, empty for start of day): ");
+        String from = scanner.nextLine().trim();
+        System.out.print("To (HH:mm, empty for end of day): ");
+        String to = scanner.nextLine().trim();
+
+        LocalDateTime start = LocalDateTime.parse(day + " " + (from.isEmpty() ? "00:00" : from), CANDLE_INPUT);
+        LocalDateTime end = to.isEmpty() ? start.toLocalDate().plusDays(1).atStartOfDay().minusNanos(1)
+                : LocalDateTime.parse(day + " " + to, CANDLE_INPUT).plusSeconds(59);
         System.out.println("\n" + ConsoleColors.BOLD + "TRADE HISTORY: " + symbol + " on " + day + " " + ConsoleColors.RESET);
-        if (trades.isEmpty()) {
-            System.out.println("No trades found.");
-        } else {
-            for (Trade t : trades) {
+        // a page at a time, so a busy day is not sent over in one piece
+        String cursor = null;
+        int shown = 0;
+        do {
+            TradePage page = service.getTrades(symbol, start, end, TRADE_PAGE, cursor);
+            for (Trade t : page.getTrades()) {
                 System.out.println(t);
             }
+            shown += page.getTrades().size();
+            cursor = page.getNextCursor();
+            if (cursor != null) {
+                System.out.print("-- " + shown + " shown, Enter for more, q to stop: ");
+                if (scanner.nextLine().trim().equalsIgnoreCase("q")) break;
+            }
+        } while (cursor != null);
+        if (shown == 0) System.out.println("No trades found.");
+    }
+
+    private void viewCandles() throws Exception {
+        System.out.print("Symbol: ");
+        String symbol = scanner.nextLine().trim().toUpperCase();
+        System.out.print("Resolution (1m, 5m, 1h, 1d): ");
+        String resolution = scanner.nextLine().trim();
+        System.out.print("From (yyyy-MM-dd HH:mm, empty for all): ");
+        String from = scanner.nextLine().trim();
+        System.out.print("To (yyyy-MM-dd HH:mm, empty for all): ");
+        String to = scanner.nextLine().trim();
+
+        List<Candle> candles = service.getCandles(symbol, resolution,
+                from.isEmpty() ? null : LocalDateTime.parse(from, CANDLE_INPUT),
+                to.isEmpty() ? null : LocalDateTime.parse(to, CANDLE_INPUT));
+        System.out.println("\n" + ConsoleColors.BOLD + "CANDLES: " + symbol + " " + resolution + " " + ConsoleColors.RESET);
+        if (candles.isEmpty()) {
+            System.out.println("No candles found.");
+        } else {
+            for (Candle c : candles) {
+                System.out.println(c);
+            }
         }
     }
 
@@ -57,6 +57,8 @@ public class MarketDisplay {
         String symbol = upd.getSymbol();
         DisplayRow row = rows.get(symbol);
         if (row == null) return;
+        // Bar closes aren't shown in the price table
+        if (upd.getType() == MarketUpdate.UpdateType.CANDLE_CLOSED) return;
 
         //double oldPrice = row.price;
         row.price = upd.getPrice();
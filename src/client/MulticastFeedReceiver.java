@@ -0,0 +1,175 @@
+package client;
+
+import common.FeedProtocol;
+import common.MarketUpdate;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Receiver of the multicast market feed for any number of local consumers. Hands updates
+ * to the listener in sequence order without gaps: a missed run of sequences is replayed
+ * over the TCP recovery channel, and when the server no longer holds it the receiver
+ * starts over from a snapshot of the latest prices. The listener runs on the receiving
+ * thread and should not block.
+ */
+public class MulticastFeedReceiver implements Runnable {
+
+    private static final int MAX_PACKET_SIZE = 1500;
+
+    private final String group;
+    private final int port;
+    private final String recoveryHost;
+    private final int recoveryPort;
+    private final Consumer<MarketUpdate> listener;
+    private DatagramChannel channel;
+    private Socket recoverySocket;
+    private DataOutputStream recoveryOut;
+    private FeedProtocol.Decoder decoder;
+    private long expected;
+    private volatile long gaps;
+    private volatile long snapshots;
+    private volatile boolean running = true;
+
+    public MulticastFeedReceiver(String group, int port, String recoveryHost, int recoveryPort,
+                                 Consumer<MarketUpdate> listener) {
+        this.group = group;
+        this.port = port;
+        this.recoveryHost = recoveryHost;
+        this.recoveryPort = recoveryPort;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        try {
+            channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(port));
+            channel.join(InetAddress.getByName(group), multicastInterface());
+            // Joined before the snapshot, so nothing after it can slip by
+            connectRecovery();
+            takeSnapshot();
+            System.out.println("[MulticastReceiver] Joined " + group + ":" + port + " at sequence " + expected);
+
+            ByteBuffer packet = ByteBuffer.allocate(MAX_PACKET_SIZE);
+            while (running) {
+                packet.clear();
+                channel.receive(packet);
+                onPacket(packet.array(), packet.position());
+            }
+        } catch (ClosedChannelException e) {
+            if (running) System.err.println("[MulticastReceiver] Channel closed");
+        } catch (IOException e) {
+            System.err.println("[MulticastReceiver] Error: " + e.getMessage());
+        } finally {
+            disconnect();
+        }
+    }
+
+    private void onPacket(byte[] data, int length) throws IOException {
+        if (length < FeedProtocol.PACKET_HEADER_SIZE) return;
+        ByteBuffer header = ByteBuffer.wrap(data, 0, length);
+        long first = header.getLong();
+        int count = header.getShort() & 0xFFFF;
+        if (first > expected) recover(expected, first - 1);
+        // Heartbeat, or a packet we already have from a replay
+        if (count == 0 || first + count <= expected) return;
+        deliver(decoder.readPacket(data, 0, length));
+    }
+
+    private void recover(long from, long to) throws IOException {
+        gaps++;
+        List<MarketUpdate> missed = request("REPLAY:" + from + ":" + to);
+        if (decoder.getEndSequence() < 0) {
+            System.out.println("[MulticastReceiver] Sequences " + from + "-" + to + " no longer held, taking a snapshot");
+            takeSnapshot();
+            return;
+        }
+        deliver(missed);
+    }
+
+    private void takeSnapshot() throws IOException {
+        List<MarketUpdate> prices = request("SNAPSHOT");
+        snapshots++;
+        for (MarketUpdate update : prices) listener.accept(update);
+        expected = decoder.getEndSequence() + 1;
+    }
+
+    private void deliver(List<MarketUpdate> updates) {
+        for (MarketUpdate update : updates) {
+            if (update.getSequence() < expected) continue;
+            listener.accept(update);
+            expected = update.getSequence() + 1;
+        }
+    }
+
+    // Sends a recovery command and collects the updates up to its END frame
+    private List<MarketUpdate> request(String command) throws IOException {
+        try {
+            return exchange(command);
+        } catch (IOException e) {
+            // One reconnect; a second failure ends the receiver
+            System.err.println("[MulticastReceiver] Recovery channel lost, reconnecting: " + e.getMessage());
+            closeRecovery();
+            connectRecovery();
+            return exchange(command);
+        }
+    }
+
+    private List<MarketUpdate> exchange(String command) throws IOException {
+        recoveryOut.writeUTF(command);
+        recoveryOut.flush();
+        List<MarketUpdate> updates = new ArrayList<>();
+        do {
+            updates.addAll(decoder.readFrame());
+        } while (!decoder.isEnd());
+        return updates;
+    }
+
+    private void connectRecovery() throws IOException {
+        recoverySocket = new Socket(recoveryHost, recoveryPort);
+        recoverySocket.setTcpNoDelay(true);
+        recoveryOut = new DataOutputStream(new BufferedOutputStream(recoverySocket.getOutputStream()));
+        decoder = new FeedProtocol.Decoder(new DataInputStream(new BufferedInputStream(recoverySocket.getInputStream())));
+        FeedProtocol.writeHandshake(recoveryOut);
+        exchange("SYMBOLS");
+    }
+
+    private void closeRecovery() {
+        try { if (recoverySocket != null) recoverySocket.close(); } catch (IOException ignored) {}
+    }
+
+    // -Dberza.multicast.interface=name, otherwise the first multicast-capable interface that is up
+    private static NetworkInterface multicastInterface() throws IOException {
+        String name = System.getProperty("berza.multicast.interface");
+        if (name != null) return NetworkInterface.getByName(name);
+        for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (ni.isUp() && ni.supportsMulticast() && !ni.isLoopback()) return ni;
+        }
+        return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    }
+
+    // Sequences recovered over TCP, and snapshots taken (the first one on joining)
+    public long getGapCount() { return gaps; }
+    public long getSnapshotCount() { return snapshots; }
+
+    public void disconnect() {
+        running = false;
+        try {
+            if (recoveryOut != null) {
+                recoveryOut.writeUTF("DISCONNECT");
+                recoveryOut.flush();
+            }
+        } catch (IOException ignored) {}
+        closeRecovery();
+        try { if (channel != null) channel.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,79 @@
+package client;
+
+import common.DepthLevel;
+import common.DepthUpdate;
+import common.MarketDepth;
+
+import java.util.*;
+
+/**
+ * Local copy of order books, kept current from the depth feed instead of polling the
+ * server. Each book starts from a snapshot; deltas at or below the snapshot's sequence are
+ * already in it and get skipped, later ones must follow without a gap.
+ */
+public class OrderBookMirror {
+
+    private static final class Book {
+        final TreeMap<Double, DepthLevel> bids = new TreeMap<>(Comparator.reverseOrder());
+        final TreeMap<Double, DepthLevel> asks = new TreeMap<>();
+        long sequence;
+    }
+
+    private final Map<String, Book> books = new HashMap<>();
+
+    // Returns false if a delta was missed; the book is dropped until a new snapshot arrives
+    public synchronized boolean apply(DepthUpdate update) {
+        Book book = books.get(update.getSymbol());
+        switch (update.getKind()) {
+            case SNAPSHOT_START:
+                book = new Book();
+                book.sequence = update.getSequence();
+                books.put(update.getSymbol(), book);
+                return true;
+            case SNAPSHOT_LEVEL:
+                if (book != null) put(book, update);
+                return true;
+            default:
+                // Not synced yet, or already part of the snapshot
+                if (book == null || update.getSequence() <= book.sequence) return true;
+                if (update.getSequence() != book.sequence + 1) {
+                    books.remove(update.getSymbol());
+                    return false;
+                }
+                book.sequence = update.getSequence();
+                put(book, update);
+                return true;
+        }
+    }
+
+    // Top levels of the mirrored book, or null until its snapshot arrived
+    public synchronized MarketDepth getDepth(String symbol, int levels) {
+        Book book = books.get(symbol);
+        if (book == null) return null;
+        return new MarketDepth(symbol, top(book.bids, levels), top(book.asks, levels));
+    }
+
+    // Book sequence the mirror is at, -1 while not synced
+    public synchronized long getSequence(String symbol) {
+        Book book = books.get(symbol);
+        return book != null ? book.sequence : -1;
+    }
+
+    private static void put(Book book, DepthUpdate update) {
+        TreeMap<Double, DepthLevel> side = update.isBid() ? book.bids : book.asks;
+        if (update.getQuantity() == 0) {
+            side.remove(update.getPrice());
+        } else {
+            side.put(update.getPrice(), new DepthLevel(update.getPrice(), update.getQuantity(), update.getOrderCount()));
+        }
+    }
+
+    private static List<DepthLevel> top(TreeMap<Double, DepthLevel> side, int levels) {
+        List<DepthLevel> result = new ArrayList<>(Math.min(levels, side.size()));
+        for (DepthLevel level : side.values()) {
+            if (result.size() >= levels) break;
+            result.add(level);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+package client;
+
+import common.FeedProtocol;
+import common.OrderProtocol;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Client of the binary order gateway. buy, sell and cancel only buffer the order and
+ * return its client order id; flush sends everything buffered in one write, so many
+ * orders can be in flight at once. Acks and rejects arrive on the listener from the
+ * client's reader thread, matched up by client order id.
+ */
+public class OrderGatewayClient implements Closeable {
+
+    public interface Listener {
+        // orderId is 0 for an acknowledged cancel
+        void onAck(long clientOrderId, long orderId);
+        // reason is one of the OrderProtocol.REJECT_ codes
+        void onReject(long clientOrderId, int reason);
+    }
+
+    private static final int UNKNOWN_SYMBOL_ID = 0xFFFF;
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final Listener listener;
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    private final ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+    private long nextClientOrderId;
+    private volatile boolean open = true;
+
+    public OrderGatewayClient(String host, int port, int clientId, Listener listener) throws IOException {
+        this.listener = listener;
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+        out.put(OrderProtocol.HANDSHAKE);
+        OrderProtocol.putLogon(out, clientId);
+        flush();
+        byte type = in.readByte();
+        if (type == OrderProtocol.MSG_REJECT) {
+            int reason = in.readByte();
+            channel.close();
+            throw new IOException("Logon rejected: " + OrderProtocol.rejectText(reason));
+        }
+        if (type != FeedProtocol.FRAME_SYMBOLS) throw new IOException("Unexpected message " + type);
+        in.readByte();
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[in.readUnsignedShort()];
+            in.readFully(name);
+            symbolIds.put(new String(name, StandardCharsets.US_ASCII), i);
+        }
+
+        Thread reader = new Thread(this::readLoop, "OrderGatewayClient");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public synchronized long buy(String symbol, double price, double quantity) throws IOException {
+        return order(true, symbol, price, quantity);
+    }
+
+    public synchronized long sell(String symbol, double price, double quantity) throws IOException {
+        return order(false, symbol, price, quantity);
+    }
+
+    public synchronized long cancel(long orderId) throws IOException {
+        room(OrderProtocol.CANCEL_SIZE);
+        long clientOrderId = ++nextClientOrderId;
+        OrderProtocol.putCancel(out, orderId, clientOrderId);
+        return clientOrderId;
+    }
+
+    // Sends everything buffered so far
+    public synchronized void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) channel.write(out);
+        out.clear();
+    }
+
+    private long order(boolean buy, String symbol, double price, double quantity) throws IOException {
+        room(OrderProtocol.NEW_SIZE);
+        long clientOrderId = ++nextClientOrderId;
+        // An unknown symbol goes out anyway and comes back as a reject, like every other error
+        int symbolId = symbolIds.getOrDefault(symbol, UNKNOWN_SYMBOL_ID);
+        OrderProtocol.putNew(out, buy, symbolId, clientOrderId, price, quantity);
+        return clientOrderId;
+    }
+
+    private void room(int size) throws IOException {
+        if (out.remaining() < size) flush();
+    }
+
+    private void readLoop() {
+        try {
+            while (open) {
+                byte type = in.readByte();
+                if (type == OrderProtocol.MSG_ACK) {
+                    in.readByte();
+                    in.readShort();
+                    long orderId = in.readLong();
+                    listener.onAck(in.readLong(), orderId);
+                } else if (type == OrderProtocol.MSG_REJECT) {
+                    int reason = in.readByte();
+                    in.readShort();
+                    listener.onReject(in.readLong(), reason);
+                } else {
+                    throw new IOException("Unexpected message " + type);
+                }
+            }
+        } catch (IOException e) {
+            if (open) System.err.println("[OrderGatewayClient] Connection closed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        channel.close();
+    }
+}
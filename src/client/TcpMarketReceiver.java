@@ -1,13 +1,22 @@
 package client;
 
+import common.FeedProtocol;
 import common.MarketUpdate;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
+// Reconnects with backoff when the feed drops and asks the server for what it missed meanwhile
 public class TcpMarketReceiver implements Runnable {
 
+    // -Dberza.feed.protocol=binary|java; java is the older serialized-object feed
+    private static final boolean BINARY = !"java".equalsIgnoreCase(System.getProperty("berza.feed.protocol", "binary"));
+    private static final long INITIAL_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
     private final String host;
     private final int port;
     private final List<String> subscribedSymbols;
@@ -15,7 +24,14 @@ public class TcpMarketReceiver implements Runnable {
     private Socket socket;
     private ObjectOutputStream oos;
     private ObjectInputStream ois;
+    private DataOutputStream out;
     private volatile boolean running = true;
+    // Highest sequence shown; -1 before the first update. Live updates may arrive out of
+    // sequence order (a backed-up connection gets its latest prices last), so it is only used
+    // to drop what a RESUME sends again
+    private long lastSequence = -1;
+    // After RESUME, updates are held until the server's END so replayed and live ones can be ordered
+    private List<MarketUpdate> resumed;
 
     public TcpMarketReceiver(String host, int port, List<String> subscribedSymbols, MarketDisplay display) {
         this.host = host;
@@ -26,50 +42,129 @@ public class TcpMarketReceiver implements Runnable {
 
     @Override
     public void run() {
-        try {
-            socket = new Socket(host, port); //otvara konekciju
+        long backoff = INITIAL_BACKOFF_MS;
+        while (running) {
+            try {
+                connect();
+                backoff = INITIAL_BACKOFF_MS;
+                if (BINARY) receiveBinary(); else receiveObjects();
+            } catch (EOFException e) {
+                // server closed the connection
+            } catch (IOException e) {
+                if (running) System.err.println("[TcpReceiver] Error: " + e.getMessage());
+            } finally {
+                closeSocket();
+            }
+            if (!running) break;
+            System.out.println("[TcpReceiver] Connection lost, reconnecting in " + backoff + " ms");
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket(host, port); //otvara konekciju
+        String subscription = "SUBSCRIBE:" + String.join(",", subscribedSymbols);
+        String resume = lastSequence >= 0 ? "RESUME:" + lastSequence : null;
+        resumed = resume != null ? new ArrayList<>() : null;
+
+        if (BINARY) {
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            FeedProtocol.writeHandshake(out);
+            out.writeUTF(subscription);
+            if (resume != null) out.writeUTF(resume);
+            out.flush();
+        } else {
             oos = new ObjectOutputStream(socket.getOutputStream());
             oos.flush();
             ois = new ObjectInputStream(socket.getInputStream());
 
             // Send subscription
-            String subscription = "SUBSCRIBE:" + String.join(",", subscribedSymbols);
             oos.writeObject(subscription);
+            if (resume != null) oos.writeObject(resume);
             oos.flush();
+        }
+        System.out.println("[TcpReceiver] Connected" + (BINARY ? " (binary feed)" : "") + ". Subscribed to: "
+                + subscribedSymbols + (resume != null ? ", resuming after " + lastSequence : ""));
+    }
+
+    private void receiveBinary() throws IOException {
+        FeedProtocol.Decoder decoder = new FeedProtocol.Decoder(
+                new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+        while (running) {
+            for (MarketUpdate upd : decoder.readFrame()) receive(upd);
+            if (decoder.isEnd()) resumeEnded(decoder.getEndSequence());
+        }
+    }
 
-            System.out.println("[TcpReceiver] Connected. Subscribed to: " + subscribedSymbols);
-
-            while (running) {
-                try {
-                    Object obj = ois.readObject();
-                    if (obj instanceof MarketUpdate) {
-                        MarketUpdate upd = (MarketUpdate) obj;
-                        if (display.isInitialized()) {
-                            display.update(upd);
-                        }
-                    }
-                } catch (EOFException | java.net.SocketException e) {
-                    System.out.println("[TcpReceiver] Connection closed.");
-                    break;
-                } catch (ClassNotFoundException e) {
-                    System.err.println("[TcpReceiver] Unknown class: " + e.getMessage());
+    private void receiveObjects() throws IOException {
+        while (running) {
+            try {
+                Object obj = ois.readObject();
+                if (obj instanceof MarketUpdate) {
+                    receive((MarketUpdate) obj);
+                } else if (obj instanceof String && ((String) obj).startsWith("END:")) {
+                    resumeEnded(Long.parseLong(((String) obj).substring(4)));
                 }
+            } catch (ClassNotFoundException e) {
+                System.err.println("[TcpReceiver] Unknown class: " + e.getMessage());
             }
-        } catch (IOException e) {
-            System.err.println("[TcpReceiver] Error: " + e.getMessage());
-        } finally {
-            disconnect();
         }
     }
 
+    private void receive(MarketUpdate upd) {
+        if (resumed != null) {
+            resumed.add(upd);
+        } else {
+            show(upd);
+        }
+    }
+
+    // Shows what was held during the resume in sequence order, each sequence once
+    private void resumeEnded(long serverSequence) {
+        if (resumed == null) return;
+        // The server restarted and counts from scratch
+        if (serverSequence < lastSequence) lastSequence = -1;
+        resumed.sort(Comparator.comparingLong(MarketUpdate::getSequence));
+        System.out.println("[TcpReceiver] Resumed, caught up to sequence " + serverSequence);
+        List<MarketUpdate> held = resumed;
+        resumed = null;
+        long shown = lastSequence;
+        for (MarketUpdate upd : held) {
+            if (upd.getSequence() <= shown) continue;  // seen before the drop, or replayed and also live
+            shown = upd.getSequence();
+            show(upd);
+        }
+    }
+
+    private void show(MarketUpdate upd) {
+        lastSequence = Math.max(lastSequence, upd.getSequence());
+        if (display.isInitialized()) {
+            display.update(upd);
+        }
+    }
+
+    private void closeSocket() {
+        try { if (socket != null) socket.close(); } catch (IOException ignored) {}
+        out = null;
+        oos = null;
+    }
+
     public void disconnect() {
         running = false;
         try {
-            if (oos != null) {
+            if (out != null) {
+                out.writeUTF("DISCONNECT");
+                out.flush();
+            } else if (oos != null) {
                 oos.writeObject("DISCONNECT");
                 oos.flush();
             }
         } catch (IOException ignored) {}
-        try { if (socket != null) socket.close(); } catch (IOException ignored) {}
+        closeSocket();
     }
 }
@@ -0,0 +1,53 @@
+package common;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+// One OHLCV bar; openTime is simulation epoch millis (UTC)
+public class Candle implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final DateTimeFormatter TS_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final String symbol;
+    private final CandleResolution resolution;
+    private final long openTime;
+    private final double open;
+    private final double high;
+    private final double low;
+    private final double close;
+    private final double volume;
+
+    public Candle(String symbol, CandleResolution resolution, long openTime,
+                  double open, double high, double low, double close, double volume) {
+        this.symbol = symbol;
+        this.resolution = resolution;
+        this.openTime = openTime;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.volume = volume;
+    }
+
+    public String getSymbol() { return symbol; }
+    public CandleResolution getResolution() { return resolution; }
+    public long getOpenTime() { return openTime; }
+    public double getOpen() { return open; }
+    public double getHigh() { return high; }
+    public double getLow() { return low; }
+    public double getClose() { return close; }
+    public double getVolume() { return volume; }
+
+    public LocalDateTime getOpenDateTime() {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(openTime, 1000L), 0, ZoneOffset.UTC);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s | %s %s | O: %.4f | H: %.4f | L: %.4f | C: %.4f | V: %.4f",
+                getOpenDateTime().format(TS_FMT), symbol, resolution.getCode(), open, high, low, close, volume);
+    }
+}
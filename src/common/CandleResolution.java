@@ -0,0 +1,28 @@
+package common;
+
+// Bar sizes kept by the server, in simulation time
+public enum CandleResolution {
+    M1("1m", 60_000L),
+    M5("5m", 5 * 60_000L),
+    H1("1h", 60 * 60_000L),
+    D1("1d", 24 * 60 * 60_000L);
+
+    private final String code;
+    private final long millis;
+
+    CandleResolution(String code, long millis) {
+        this.code = code;
+        this.millis = millis;
+    }
+
+    public String getCode() { return code; }
+    public long getMillis() { return millis; }
+
+    // Accepts "1m", "5m", "1h", "1d"; null if unknown
+    public static CandleResolution fromCode(String code) {
+        for (CandleResolution r : values()) {
+            if (r.code.equalsIgnoreCase(code)) return r;
+        }
+        return null;
+    }
+}
@@ -1,44 +1,32 @@
 package common;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+// Read-only copy of an account taken on the server; later trades don't change it
 public class ClientAccount implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    private int clientId;
-    private double cashBalance;
-    private Map<String, Double> holdings; 
+    private final int clientId;
+    private final double cashBalance;
+    private final Map<String, Double> holdings;
 
-    public ClientAccount(int clientId, double initialCash) {
+    public ClientAccount(int clientId, double cashBalance, Map<String, Double> holdings) {
         this.clientId = clientId;
-        this.cashBalance = initialCash;
-        this.holdings = new HashMap<>();
+        this.cashBalance = cashBalance;
+        this.holdings = Collections.unmodifiableMap(new LinkedHashMap<>(holdings));
     }
 
     public int getClientId() { return clientId; }
     public double getCashBalance() { return cashBalance; }
-    public void setCashBalance(double cashBalance) { this.cashBalance = cashBalance; }
     public Map<String, Double> getHoldings() { return holdings; }
 
     public double getHolding(String symbol) {
         return holdings.getOrDefault(symbol, 0.0);
     }
 
-    public void addHolding(String symbol, double quantity) {
-        holdings.merge(symbol, quantity, Double::sum);
-    }
-
-    public void subtractHolding(String symbol, double quantity) {
-        double current = getHolding(symbol);
-        if (current - quantity < 0.000001) {
-            holdings.remove(symbol);
-        } else {
-            holdings.put(symbol, current - quantity);
-        }
-    }
-
     @Override
     public String toString() {
         return String.format("ClientAccount{clientId=%d, cash=%.2f, holdings=%s}", clientId, cashBalance, holdings);
@@ -0,0 +1,27 @@
+package common;
+
+import java.io.Serializable;
+
+// One aggregated price level of an order book
+public class DepthLevel implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final double price;
+    private final double quantity;
+    private final int orderCount;
+
+    public DepthLevel(double price, double quantity, int orderCount) {
+        this.price = price;
+        this.quantity = quantity;
+        this.orderCount = orderCount;
+    }
+
+    public double getPrice() { return price; }
+    public double getQuantity() { return quantity; }
+    public int getOrderCount() { return orderCount; }
+
+    @Override
+    public String toString() {
+        return String.format("DepthLevel{price=%.4f, qty=%.4f, orders=%d}", price, quantity, orderCount);
+    }
+}
@@ -0,0 +1,47 @@
+package common;
+
+import java.io.Serializable;
+
+/**
+ * One message of the order-book depth feed. A subscription starts with SNAPSHOT_START,
+ * then one SNAPSHOT_LEVEL per level of the book, all carrying the book sequence the
+ * snapshot is current as of. After that each DELTA gives the new aggregate of one level
+ * (quantity 0 means the level is gone) with the next book sequence.
+ */
+public class DepthUpdate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind { SNAPSHOT_START, SNAPSHOT_LEVEL, DELTA }
+
+    private final String symbol;
+    private final Kind kind;
+    private final boolean bid;
+    private final double price;
+    private final double quantity;
+    private final int orderCount;
+    private final long sequence;
+
+    public DepthUpdate(String symbol, Kind kind, boolean bid, double price, double quantity, int orderCount, long sequence) {
+        this.symbol = symbol;
+        this.kind = kind;
+        this.bid = bid;
+        this.price = price;
+        this.quantity = quantity;
+        this.orderCount = orderCount;
+        this.sequence = sequence;
+    }
+
+    public String getSymbol() { return symbol; }
+    public Kind getKind() { return kind; }
+    public boolean isBid() { return bid; }
+    public double getPrice() { return price; }
+    public double getQuantity() { return quantity; }
+    public int getOrderCount() { return orderCount; }
+    public long getSequence() { return sequence; }
+
+    @Override
+    public String toString() {
+        return String.format("DepthUpdate{%s %s %s %.4f x %.4f (%d), seq=%d}",
+                kind, symbol, bid ? "BID" : "ASK", price, quantity, orderCount, sequence);
+    }
+}
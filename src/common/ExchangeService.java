@@ -2,6 +2,7 @@ package common;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface ExchangeService extends Remote {
@@ -16,13 +17,29 @@ public interface ExchangeService extends Remote {
 
     List<Order> getAskOrders(String symbol) throws RemoteException;
 
+    //Aggregated top price levels (price, total quantity, order count) of both sides
+    MarketDepth getDepth(String symbol, int levels) throws RemoteException;
+
     String placeBuyOrder(int clientId, String symbol, double price, double quantity) throws RemoteException;
 
     String placeSellOrder(int clientId, String symbol, double price, double quantity) throws RemoteException;
 
+    //Cancels a resting order and releases the reserved cash or holdings
+    String cancelOrder(int clientId, long orderId) throws RemoteException;
+
+    //Sets a new price and remaining quantity on a resting order
+    String amendOrder(int clientId, long orderId, double newPrice, double newQuantity) throws RemoteException;
+
     //Returns all trades for a given symbol on a given day
     List<Trade> getTradesForDay(String symbol, String day) throws RemoteException;
 
+    //One page (at most limit trades) of a symbol's trades within [from, to], null for open ends;
+    //cursor is null for the first page, then the previous page's nextCursor
+    TradePage getTrades(String symbol, LocalDateTime from, LocalDateTime to, int limit, String cursor) throws RemoteException;
+
+    //OHLCV bars of a symbol at resolution 1m, 5m, 1h or 1d, opened within [from, to] (simulation time)
+    List<Candle> getCandles(String symbol, String resolution, LocalDateTime from, LocalDateTime to) throws RemoteException;
+
     ClientAccount getClientAccount(int clientId) throws RemoteException;
 
     int getTcpPort() throws RemoteException;
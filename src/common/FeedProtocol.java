@@ -0,0 +1,286 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary market-data feed, the compact alternative to serialized MarketUpdate objects.
+ *
+ * A client opens with HANDSHAKE ("CBF" + version) and then sends its commands
+ * (SUBSCRIBE:a,b replaces the subscription, ADD:a,b and REMOVE:a,b change it, DEPTH:a,b and
+ * NODEPTH:a,b start and stop order-book depth, RESUME:seq catches up after a reconnect and is
+ * answered with an END frame, DISCONNECT) as DataOutputStream.writeUTF strings. The server answers with a SYMBOLS frame
+ * mapping symbol ids to names, then streams frames. Every frame starts with a 4-byte
+ * header: type u8, flags u8, record count u16; records are fixed size.
+ *
+ *   UPDATE (36 bytes): symbolId u16, updateType u8, pad u8, price f64, change% f64, sequence i64, epochMs i64
+ *   CANDLE (60 bytes): symbolId u16, resolution u8, pad u8, sequence i64, openTime i64, open, high, low, close, volume f64
+ *   DEPTH (32 bytes): symbolId u16, kind u8, side u8 (0 bid, 1 ask), orderCount i32, bookSequence i64, price f64, quantity f64
+ *
+ * DEPTH records follow their own per-book sequence, see DepthUpdate.
+ *
+ * Big-endian throughout; times are simulation epoch millis.
+ *
+ * The same frames also go out as UDP multicast. Each datagram starts with a 12-byte
+ * packet header (first sequence i64, record count u16, pad u16) followed by frames whose
+ * records carry consecutive sequences; a packet with no records is a heartbeat announcing
+ * the next sequence. Missed sequences are fetched over the TCP recovery channel: after the
+ * handshake the client sends SYMBOLS, SNAPSHOT or REPLAY:from:to and reads frames up to an
+ * END frame.
+ *
+ *   END (8 bytes): sequence i64 - snapshot: the sequence it is current as of;
+ *                  replay: the last sequence sent, or -1 if the range is no longer held
+ */
+public final class FeedProtocol {
+
+    public static final byte VERSION = 1;
+    public static final byte[] HANDSHAKE = {'C', 'B', 'F', VERSION};
+
+    public static final byte FRAME_SYMBOLS = 1;
+    public static final byte FRAME_UPDATES = 2;
+    public static final byte FRAME_CANDLES = 3;
+    public static final byte FRAME_END = 4;
+    public static final byte FRAME_DEPTH = 5;
+
+    public static final int HEADER_SIZE = 4;
+    public static final int UPDATE_SIZE = 36;
+    public static final int CANDLE_SIZE = 60;
+    public static final int END_SIZE = 8;
+    public static final int DEPTH_SIZE = 32;
+    public static final int PACKET_HEADER_SIZE = 12;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final MarketUpdate.UpdateType[] UPDATE_TYPES = MarketUpdate.UpdateType.values();
+    private static final CandleResolution[] RESOLUTIONS = CandleResolution.values();
+    private static final DepthUpdate.Kind[] DEPTH_KINDS = DepthUpdate.Kind.values();
+
+    private FeedProtocol() {}
+
+    // True if the first bytes a client sent are this protocol's handshake, whatever the version
+    public static boolean isHandshake(ByteBuffer in) {
+        return in.remaining() >= HANDSHAKE.length && in.get(in.position()) == HANDSHAKE[0]
+                && in.get(in.position() + 1) == HANDSHAKE[1] && in.get(in.position() + 2) == HANDSHAKE[2];
+    }
+
+    public static byte[] encodeSymbols(List<String> symbols) {
+        int size = HEADER_SIZE;
+        for (String s : symbols) size += 2 + s.length();
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        putHeader(buf, FRAME_SYMBOLS, symbols.size());
+        for (String s : symbols) {
+            buf.putShort((short) s.length());
+            for (int i = 0; i < s.length(); i++) buf.put((byte) s.charAt(i)); // symbols are ASCII
+        }
+        return buf.array();
+    }
+
+    public static byte[] encodeEnd(long sequence) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + END_SIZE);
+        putHeader(buf, FRAME_END, 1);
+        buf.putLong(sequence);
+        return buf.array();
+    }
+
+    // Frame type an update's record belongs in
+    public static byte frameType(MarketUpdate update) {
+        return update.getCandle() != null ? FRAME_CANDLES : FRAME_UPDATES;
+    }
+
+    public static int recordSize(byte frameType) {
+        switch (frameType) {
+            case FRAME_CANDLES: return CANDLE_SIZE;
+            case FRAME_DEPTH: return DEPTH_SIZE;
+            default: return UPDATE_SIZE;
+        }
+    }
+
+    // Writers for building frames of many records: one header, then count records of its type
+
+    public static void putHeader(ByteBuffer buf, byte type, int count) {
+        buf.put(type);
+        buf.put((byte) 0);
+        buf.putShort((short) count);
+    }
+
+    public static void putPacketHeader(ByteBuffer buf, long firstSequence, int count) {
+        buf.putLong(firstSequence);
+        buf.putShort((short) count);
+        buf.putShort((short) 0);
+    }
+
+    public static void putUpdate(ByteBuffer buf, MarketUpdate update, int symbolId) {
+        buf.putShort((short) symbolId);
+        buf.put((byte) update.getType().ordinal());
+        buf.put((byte) 0);
+        buf.putDouble(update.getPrice());
+        buf.putDouble(update.getChangePercent());
+        buf.putLong(update.getSequence());
+        buf.putLong(update.getTimestamp());
+    }
+
+    public static void putCandle(ByteBuffer buf, MarketUpdate update, int symbolId) {
+        Candle candle = update.getCandle();
+        buf.putShort((short) symbolId);
+        buf.put((byte) candle.getResolution().ordinal());
+        buf.put((byte) 0);
+        buf.putLong(update.getSequence());
+        buf.putLong(candle.getOpenTime());
+        buf.putDouble(candle.getOpen());
+        buf.putDouble(candle.getHigh());
+        buf.putDouble(candle.getLow());
+        buf.putDouble(candle.getClose());
+        buf.putDouble(candle.getVolume());
+    }
+
+    public static void putDepth(ByteBuffer buf, DepthUpdate depth, int symbolId) {
+        buf.putShort((short) symbolId);
+        buf.put((byte) depth.getKind().ordinal());
+        buf.put((byte) (depth.isBid() ? 0 : 1));
+        buf.putInt(depth.getOrderCount());
+        buf.putLong(depth.getSequence());
+        buf.putDouble(depth.getPrice());
+        buf.putDouble(depth.getQuantity());
+    }
+
+    /**
+     * Client side: reads frames from the server and turns them back into MarketUpdates.
+     * Holds the symbol table from the SYMBOLS frame; not thread safe.
+     */
+    public static final class Decoder {
+        private final DataInputStream in;
+        private String[] symbols = new String[0];
+        private boolean end;
+        private long endSequence;
+        private final List<DepthUpdate> depth = new ArrayList<>();
+        private byte[] record = new byte[CANDLE_SIZE];
+        // Updates of the same simulated second share one formatted time string
+        private long lastSecond = Long.MIN_VALUE;
+        private String lastTime = "";
+
+        public Decoder(DataInputStream in) {
+            this.in = in;
+        }
+
+        // Reads one frame; returns its updates (the SYMBOLS and END frames yield none)
+        public List<MarketUpdate> readFrame() throws IOException {
+            return readFrame(in);
+        }
+
+        // Decodes the frames of one multicast packet, after its packet header
+        public List<MarketUpdate> readPacket(byte[] data, int offset, int length) throws IOException {
+            DataInputStream packet = new DataInputStream(new java.io.ByteArrayInputStream(
+                    data, offset + PACKET_HEADER_SIZE, length - PACKET_HEADER_SIZE));
+            List<MarketUpdate> updates = new ArrayList<>();
+            while (packet.available() > 0) updates.addAll(readFrame(packet));
+            return updates;
+        }
+
+        // Depth records of the last frame read; readFrame returns none for a DEPTH frame
+        public List<DepthUpdate> getDepthUpdates() { return depth; }
+
+        // True if the last frame read was an END frame of the recovery channel
+        public boolean isEnd() { return end; }
+        public long getEndSequence() { return endSequence; }
+
+        private List<MarketUpdate> readFrame(DataInputStream in) throws IOException {
+            end = false;
+            depth.clear();
+            byte type = in.readByte();
+            in.readByte(); // flags, none defined in version 1
+            int count = in.readUnsignedShort();
+            List<MarketUpdate> updates = new ArrayList<>(count);
+            switch (type) {
+                case FRAME_SYMBOLS:
+                    symbols = new String[count];
+                    for (int i = 0; i < count; i++) {
+                        byte[] name = new byte[in.readUnsignedShort()];
+                        in.readFully(name);
+                        symbols[i] = new String(name, java.nio.charset.StandardCharsets.US_ASCII);
+                    }
+                    break;
+                case FRAME_UPDATES:
+                    for (int i = 0; i < count; i++) updates.add(readUpdate(in));
+                    break;
+                case FRAME_CANDLES:
+                    for (int i = 0; i < count; i++) updates.add(readCandle(in));
+                    break;
+                case FRAME_DEPTH:
+                    for (int i = 0; i < count; i++) depth.add(readDepth(in));
+                    break;
+                case FRAME_END:
+                    end = true;
+                    endSequence = in.readLong();
+                    break;
+                default:
+                    throw new IOException("Unknown frame type " + type);
+            }
+            return updates;
+        }
+
+        private MarketUpdate readUpdate(DataInputStream in) throws IOException {
+            ByteBuffer r = readRecord(in, UPDATE_SIZE);
+            String symbol = symbol(r.getShort() & 0xFFFF);
+            MarketUpdate.UpdateType type = UPDATE_TYPES[r.get()];
+            r.get();
+            double price = r.getDouble();
+            double change = r.getDouble();
+            long sequence = r.getLong();
+            long timestamp = r.getLong();
+            return new MarketUpdate(type, symbol, price, change, format(timestamp), sequence, timestamp);
+        }
+
+        private MarketUpdate readCandle(DataInputStream in) throws IOException {
+            ByteBuffer r = readRecord(in, CANDLE_SIZE);
+            String symbol = symbol(r.getShort() & 0xFFFF);
+            CandleResolution resolution = RESOLUTIONS[r.get()];
+            r.get();
+            long sequence = r.getLong();
+            long openTime = r.getLong();
+            Candle candle = new Candle(symbol, resolution, openTime,
+                    r.getDouble(), r.getDouble(), r.getDouble(), r.getDouble(), r.getDouble());
+            return new MarketUpdate(candle, format(openTime), sequence);
+        }
+
+        private DepthUpdate readDepth(DataInputStream in) throws IOException {
+            ByteBuffer r = readRecord(in, DEPTH_SIZE);
+            String symbol = symbol(r.getShort() & 0xFFFF);
+            DepthUpdate.Kind kind = DEPTH_KINDS[r.get()];
+            boolean bid = r.get() == 0;
+            int orderCount = r.getInt();
+            long sequence = r.getLong();
+            return new DepthUpdate(symbol, kind, bid, r.getDouble(), r.getDouble(), orderCount, sequence);
+        }
+
+        private ByteBuffer readRecord(DataInputStream in, int size) throws IOException {
+            in.readFully(record, 0, size);
+            return ByteBuffer.wrap(record, 0, size);
+        }
+
+        private String symbol(int id) throws IOException {
+            if (id >= symbols.length) throw new IOException("Unknown symbol id " + id);
+            return symbols[id];
+        }
+
+        private String format(long epochMs) {
+            long second = Math.floorDiv(epochMs, 1000L);
+            if (second != lastSecond) {
+                lastSecond = second;
+                lastTime = LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC).format(TIME_FORMAT);
+            }
+            return lastTime;
+        }
+    }
+
+    // Client side: the handshake, then commands as length-prefixed UTF strings
+    public static void writeHandshake(DataOutputStream out) throws IOException {
+        out.write(HANDSHAKE);
+        out.flush();
+    }
+}
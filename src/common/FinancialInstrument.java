@@ -1,33 +1,49 @@
 package common;
 
 import java.io.Serializable;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 
 public class FinancialInstrument implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     private String symbol;
     private String name;
+    private double tickSize;
+    private double lotSize;
     private double openPrice;
     private double currentPrice;
     private double change1h;
     private double change24h;
     private double change7d;
-    private LocalDateTime lastUpdated;
+    // Rolling 24h statistics from the 1m candles
+    private double high24h;
+    private double low24h;
+    private double volume24h;
+    private double vwap24h;
+    // Epoch millis, so a fill can stamp it without allocating
+    private long lastUpdatedMillis;
 
-    public FinancialInstrument(String symbol, String name, double openPrice) {
+    public FinancialInstrument(String symbol, String name, double openPrice, InstrumentSpec spec) {
         this.symbol = symbol;
         this.name = name;
+        this.tickSize = spec.getTickSize();
+        this.lotSize = spec.getLotSize();
         this.openPrice = openPrice;
         this.currentPrice = openPrice;
         this.change1h = 0.0;
         this.change24h = 0.0;
         this.change7d = 0.0;
-        this.lastUpdated = LocalDateTime.now();
+        this.high24h = openPrice;
+        this.low24h = openPrice;
+        this.lastUpdatedMillis = System.currentTimeMillis();
     }
 
     public String getSymbol() { return symbol; }
     public String getName() { return name; }
+    public double getTickSize() { return tickSize; }
+    public double getLotSize() { return lotSize; }
     public double getOpenPrice() { return openPrice; }
     public double getCurrentPrice() { return currentPrice; }
     public void setCurrentPrice(double currentPrice) { this.currentPrice = currentPrice; }
@@ -37,8 +53,22 @@ public class FinancialInstrument implements Serializable {
     public void setChange24h(double change24h) { this.change24h = change24h; }
     public double getChange7d() { return change7d; }
     public void setChange7d(double change7d) { this.change7d = change7d; }
-    public LocalDateTime getLastUpdated() { return lastUpdated; }
-    public void setLastUpdated(LocalDateTime lastUpdated) { this.lastUpdated = lastUpdated; }
+    public double getHigh24h() { return high24h; }
+    public double getLow24h() { return low24h; }
+    public double getVolume24h() { return volume24h; }
+    public double getVwap24h() { return vwap24h; }
+
+    public void setStats24h(double high, double low, double volume, double vwap) {
+        this.high24h = high;
+        this.low24h = low;
+        this.volume24h = volume;
+        this.vwap24h = vwap;
+    }
+
+    public LocalDateTime getLastUpdated() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(lastUpdatedMillis), ZoneId.systemDefault());
+    }
+    public void setLastUpdatedMillis(long lastUpdatedMillis) { this.lastUpdatedMillis = lastUpdatedMillis; }
 
     public double getChangeFromOpen() {
         return ((currentPrice - openPrice) / openPrice) * 100.0;
@@ -0,0 +1,89 @@
+package common;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * Tick and lot size of an instrument. Inside the exchange prices are whole ticks,
+ * quantities whole lots and cash whole CASH_SCALE units, all as longs; doubles only
+ * appear when crossing the RMI/TCP edges.
+ */
+public class InstrumentSpec implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Cash is kept in 1e-8 USD units
+    public static final long CASH_SCALE = 100_000_000L;
+
+    private final double tickSize;
+    private final double lotSize;
+    private final long cashPerTickLot;
+    private final int priceDecimals;
+    private final int quantityDecimals;
+
+    public InstrumentSpec(double tickSize, double lotSize) {
+        if (tickSize <= 0 || lotSize <= 0) {
+            throw new IllegalArgumentException("Tick and lot size must be positive");
+        }
+        double units = tickSize * lotSize * CASH_SCALE;
+        long rounded = Math.round(units);
+        if (rounded < 1 || Math.abs(units - rounded) > 1e-6) {
+            throw new IllegalArgumentException(String.format(
+                    "tick %s x lot %s is not a whole number of cash units", tickSize, lotSize));
+        }
+        this.tickSize = tickSize;
+        this.lotSize = lotSize;
+        this.cashPerTickLot = rounded;
+        this.priceDecimals = decimals(tickSize);
+        this.quantityDecimals = decimals(lotSize);
+    }
+
+    public double getTickSize() { return tickSize; }
+    public double getLotSize() { return lotSize; }
+    public int getPriceDecimals() { return priceDecimals; }
+    public int getQuantityDecimals() { return quantityDecimals; }
+
+    public long toTicks(double price) {
+        return Math.round(price / tickSize);
+    }
+
+    public double toPrice(long ticks) {
+        return scale(ticks, tickSize);
+    }
+
+    public long toLots(double quantity) {
+        return Math.round(quantity / lotSize);
+    }
+
+    public double toQuantity(long lots) {
+        return scale(lots, lotSize);
+    }
+
+    // Cash value of lots at a price, in CASH_SCALE units; ArithmeticException if it does not fit a long
+    public long notional(long ticks, long lots) {
+        return Math.multiplyExact(Math.multiplyExact(ticks, lots), cashPerTickLot);
+    }
+
+    public static double toCash(long units) {
+        return units / (double) CASH_SCALE;
+    }
+
+    public static long fromCash(double cash) {
+        return Math.round(cash * CASH_SCALE);
+    }
+
+    // Dividing by 1/size keeps decimal sizes such as 0.01 exact (0.01 * 3 != 0.03 in binary)
+    private static double scale(long units, double size) {
+        double inverse = 1.0 / size;
+        double whole = Math.rint(inverse);
+        return Math.abs(inverse - whole) < 1e-9 ? units / whole : units * size;
+    }
+
+    private static int decimals(double size) {
+        return Math.max(0, BigDecimal.valueOf(size).stripTrailingZeros().scale());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("InstrumentSpec{tick=%s, lot=%s}", tickSize, lotSize);
+    }
+}
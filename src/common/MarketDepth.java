@@ -0,0 +1,23 @@
+package common;
+
+import java.io.Serializable;
+import java.util.List;
+
+// Top levels of both sides of a book: bids best (highest) first, asks best (lowest) first
+public class MarketDepth implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String symbol;
+    private final List<DepthLevel> bids;
+    private final List<DepthLevel> asks;
+
+    public MarketDepth(String symbol, List<DepthLevel> bids, List<DepthLevel> asks) {
+        this.symbol = symbol;
+        this.bids = bids;
+        this.asks = asks;
+    }
+
+    public String getSymbol() { return symbol; }
+    public List<DepthLevel> getBids() { return bids; }
+    public List<DepthLevel> getAsks() { return asks; }
+}
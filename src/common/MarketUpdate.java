@@ -5,7 +5,7 @@ import java.io.Serializable;
 public class MarketUpdate implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    public enum UpdateType { PRICE_UPDATE, TRADE_EXECUTED, ORDER_MATCHED }
+    public enum UpdateType { PRICE_UPDATE, TRADE_EXECUTED, ORDER_MATCHED, CANDLE_CLOSED }
 
     private UpdateType type;
     private String symbol;
@@ -13,6 +13,10 @@ public class MarketUpdate implements Serializable {
     private double changePercent;
     private String simulationTime;
     private String message;
+    private Candle candle;
+    // Feed sequence and simulation epoch millis, 0 where not stamped
+    private long sequence;
+    private long timestamp;
 
     public MarketUpdate(UpdateType type, String symbol, double price, double changePercent, String simulationTime) {
         this.type = type;
@@ -23,6 +27,26 @@ public class MarketUpdate implements Serializable {
         this.message = "";
     }
 
+    public MarketUpdate(UpdateType type, String symbol, double price, double changePercent, String simulationTime,
+                        long sequence, long timestamp) {
+        this(type, symbol, price, changePercent, simulationTime);
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+
+    // A bar that just closed; price carries its close
+    public MarketUpdate(Candle candle, String simulationTime, long sequence) {
+        this.type = UpdateType.CANDLE_CLOSED;
+        this.symbol = candle.getSymbol();
+        this.price = candle.getClose();
+        this.changePercent = 0;
+        this.simulationTime = simulationTime;
+        this.message = "";
+        this.candle = candle;
+        this.sequence = sequence;
+        this.timestamp = candle.getOpenTime();
+    }
+
     public MarketUpdate(UpdateType type, String message) {
         this.type = type;
         this.message = message;
@@ -38,6 +62,11 @@ public class MarketUpdate implements Serializable {
     public double getChangePercent() { return changePercent; }
     public String getSimulationTime() { return simulationTime; }
     public String getMessage() { return message; }
+    public Candle getCandle() { return candle; }
+    public long getSequence() { return sequence; }
+    // Stamped by the server when the update goes out on the feed
+    public void setSequence(long sequence) { this.sequence = sequence; }
+    public long getTimestamp() { return timestamp; }
 
     @Override
     public String toString() {
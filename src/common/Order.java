@@ -1,48 +1,62 @@
 package common;
 
 import java.io.Serializable;
-import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
 
+// Snapshot of a resting order as returned over RMI
 public class Order implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     public enum OrderType { BUY, SELL }
 
-    private static int idCounter = 1;
+    // Shared by all books; orders are placed concurrently from RMI threads. A long, so ids
+    // never wrap into the negative numbers that stand for reject codes
+    private static final AtomicLong idCounter = new AtomicLong(1);
 
-    private int id;
+    private long id;
     private int clientId;
     private String symbol;
     private OrderType type;
-    private double price;
-    private double quantity;
-    private double remainingQuantity;
-    private LocalDateTime timestamp;
-
-    public Order(int clientId, String symbol, OrderType type, double price, double quantity) {
-        this.id = idCounter++;
+    private InstrumentSpec spec;
+    private long priceTicks;
+    private long quantityLots;
+    private long remainingLots;
+    private long timestamp;
+
+    public Order(long id, int clientId, String symbol, OrderType type, InstrumentSpec spec,
+                 long priceTicks, long quantityLots, long remainingLots, long timestamp) {
+        this.id = id;
         this.clientId = clientId;
         this.symbol = symbol;
         this.type = type;
-        this.price = price;
-        this.quantity = quantity;
-        this.remainingQuantity = quantity;
-        this.timestamp = LocalDateTime.now();
+        this.spec = spec;
+        this.priceTicks = priceTicks;
+        this.quantityLots = quantityLots;
+        this.remainingLots = remainingLots;
+        this.timestamp = timestamp;
+    }
+
+    public static long nextId() {
+        return idCounter.getAndIncrement();
     }
 
-    public int getId() { return id; }
+    public long getId() { return id; }
     public int getClientId() { return clientId; }
     public String getSymbol() { return symbol; }
     public OrderType getType() { return type; }
-    public double getPrice() { return price; }
-    public double getQuantity() { return quantity; }
-    public double getRemainingQuantity() { return remainingQuantity; }
-    public void setRemainingQuantity(double remainingQuantity) { this.remainingQuantity = remainingQuantity; }
-    public LocalDateTime getTimestamp() { return timestamp; }
+    public InstrumentSpec getSpec() { return spec; }
+    public long getPriceTicks() { return priceTicks; }
+    public long getQuantityLots() { return quantityLots; }
+    public long getRemainingLots() { return remainingLots; }
+    public double getPrice() { return spec.toPrice(priceTicks); }
+    public double getQuantity() { return spec.toQuantity(quantityLots); }
+    public double getRemainingQuantity() { return spec.toQuantity(remainingLots); }
+    // Epoch millis
+    public long getTimestamp() { return timestamp; }
 
     @Override
     public String toString() {
         return String.format("Order{id=%d, clientId=%d, symbol='%s', type=%s, price=%.2f, qty=%.4f, rem=%.4f}",
-                id, clientId, symbol, type, price, quantity, remainingQuantity);
+                id, clientId, symbol, type, getPrice(), getQuantity(), getRemainingQuantity());
     }
 }
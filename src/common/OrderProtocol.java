@@ -0,0 +1,121 @@
+package common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary order-entry protocol of the TCP gateway, the fast alternative to placing orders
+ * over RMI. A client opens with HANDSHAKE ("CBO" + version) and a LOGON; the server
+ * answers with the same SYMBOLS frame as the market feed, or a REJECT and a close.
+ * After that the client may send any number of orders without waiting: each one carries
+ * a client order id, and the server answers each with an ACK or a REJECT carrying it.
+ * Orders of different symbols may be answered out of order.
+ *
+ * Client to server:
+ *   LOGON  (8 bytes):  type u8, pad u8, pad u16, clientId i32
+ *   NEW    (28 bytes): type u8, side u8 (0 buy, 1 sell), symbolId u16, clientOrderId i64, price f64, quantity f64
+ *   CANCEL (20 bytes): type u8, pad u8, pad u16, orderId i64, clientOrderId i64
+ *
+ * Server to client (after SYMBOLS):
+ *   ACK    (20 bytes): type u8, pad u8, pad u16, orderId i64, clientOrderId i64
+ *   REJECT (12 bytes): type u8, reason u8, pad u16, clientOrderId i64
+ *
+ * Big-endian throughout.
+ */
+public final class OrderProtocol {
+
+    // 2: order ids are i64
+    public static final byte VERSION = 2;
+    public static final byte[] HANDSHAKE = {'C', 'B', 'O', VERSION};
+
+    public static final byte MSG_LOGON = 1;
+    public static final byte MSG_NEW = 2;
+    public static final byte MSG_CANCEL = 3;
+
+    // SYMBOLS is FeedProtocol.FRAME_SYMBOLS
+    public static final byte MSG_ACK = 2;
+    public static final byte MSG_REJECT = 3;
+
+    public static final int LOGON_SIZE = 8;
+    public static final int NEW_SIZE = 28;
+    public static final int CANCEL_SIZE = 20;
+    public static final int ACK_SIZE = 20;
+    public static final int REJECT_SIZE = 12;
+
+    public static final byte REJECT_UNKNOWN_CLIENT = 1;
+    public static final byte REJECT_UNKNOWN_SYMBOL = 2;
+    public static final byte REJECT_INVALID_ORDER = 3;
+    public static final byte REJECT_INSUFFICIENT_FUNDS = 4;
+    public static final byte REJECT_INSUFFICIENT_HOLDINGS = 5;
+    public static final byte REJECT_UNKNOWN_ORDER = 6;
+    public static final byte REJECT_NOT_YOUR_ORDER = 7;
+    public static final byte REJECT_ORDER_CLOSED = 8;
+    public static final byte REJECT_BAD_MESSAGE = 9;
+    public static final byte REJECT_INTERNAL = 10;
+
+    private OrderProtocol() {}
+
+    // Same wording as the ERROR: results of the RMI calls
+    public static String rejectText(int reason) {
+        switch (reason) {
+            case REJECT_UNKNOWN_CLIENT: return "Unknown client";
+            case REJECT_UNKNOWN_SYMBOL: return "Unknown symbol";
+            case REJECT_INVALID_ORDER: return "Invalid price or quantity";
+            case REJECT_INSUFFICIENT_FUNDS: return "Insufficient funds";
+            case REJECT_INSUFFICIENT_HOLDINGS: return "Insufficient holdings";
+            case REJECT_UNKNOWN_ORDER: return "Unknown order";
+            case REJECT_NOT_YOUR_ORDER: return "Not your order";
+            case REJECT_ORDER_CLOSED: return "Order already filled or cancelled";
+            case REJECT_BAD_MESSAGE: return "Bad message";
+            default: return "Internal error";
+        }
+    }
+
+    // Size of a client message by its type byte, 0 if the type is unknown
+    public static int clientMessageSize(byte type) {
+        switch (type) {
+            case MSG_LOGON: return LOGON_SIZE;
+            case MSG_NEW: return NEW_SIZE;
+            case MSG_CANCEL: return CANCEL_SIZE;
+            default: return 0;
+        }
+    }
+
+    public static void putLogon(ByteBuffer buf, int clientId) {
+        buf.put(MSG_LOGON);
+        buf.put((byte) 0);
+        buf.putShort((short) 0);
+        buf.putInt(clientId);
+    }
+
+    public static void putNew(ByteBuffer buf, boolean buy, int symbolId, long clientOrderId, double price, double quantity) {
+        buf.put(MSG_NEW);
+        buf.put((byte) (buy ? 0 : 1));
+        buf.putShort((short) symbolId);
+        buf.putLong(clientOrderId);
+        buf.putDouble(price);
+        buf.putDouble(quantity);
+    }
+
+    public static void putCancel(ByteBuffer buf, long orderId, long clientOrderId) {
+        buf.put(MSG_CANCEL);
+        buf.put((byte) 0);
+        buf.putShort((short) 0);
+        buf.putLong(orderId);
+        buf.putLong(clientOrderId);
+    }
+
+    public static void putAck(ByteBuffer buf, long orderId, long clientOrderId) {
+        buf.put(MSG_ACK);
+        buf.put((byte) 0);
+        buf.putShort((short) 0);
+        buf.putLong(orderId);
+        buf.putLong(clientOrderId);
+    }
+
+    public static void putReject(ByteBuffer buf, int reason, long clientOrderId) {
+        buf.put(MSG_REJECT);
+        buf.put((byte) reason);
+        buf.putShort((short) 0);
+        buf.putLong(clientOrderId);
+    }
+}
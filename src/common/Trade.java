@@ -7,33 +7,42 @@ import java.time.format.DateTimeFormatter;
 public class Trade implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    private static final DateTimeFormatter TS_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     private String symbol;
-    private double price;
-    private double quantity;
+    private InstrumentSpec spec;
+    private long priceTicks;
+    private long quantityLots;
     private int buyerClientId;
     private int sellerClientId;
     private LocalDateTime timestamp;
 
-    public Trade(String symbol, double price, double quantity, int buyerClientId, int sellerClientId, LocalDateTime timestamp) {
+    public Trade(String symbol, InstrumentSpec spec, long priceTicks, long quantityLots,
+                 int buyerClientId, int sellerClientId, LocalDateTime timestamp) {
         this.symbol = symbol;
-        this.price = price;
-        this.quantity = quantity;
+        this.spec = spec;
+        this.priceTicks = priceTicks;
+        this.quantityLots = quantityLots;
         this.buyerClientId = buyerClientId;
         this.sellerClientId = sellerClientId;
         this.timestamp = timestamp;
     }
 
     public String getSymbol() { return symbol; }
-    public double getPrice() { return price; }
-    public double getQuantity() { return quantity; }
+    public InstrumentSpec getSpec() { return spec; }
+    public long getPriceTicks() { return priceTicks; }
+    public long getQuantityLots() { return quantityLots; }
+    public double getPrice() { return spec.toPrice(priceTicks); }
+    public double getQuantity() { return spec.toQuantity(quantityLots); }
     public int getBuyerClientId() { return buyerClientId; }
     public int getSellerClientId() { return sellerClientId; }
     public LocalDateTime getTimestamp() { return timestamp; }
 
     @Override
     public String toString() {
-        return String.format("%s | %s | PRICE: %.2f | QTY: %.4f | BUYER: %d | SELLER: %d",
-                timestamp.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")),
-                symbol, price, quantity, buyerClientId, sellerClientId);
+        // price and quantity are printed with the instrument's own precision so the archive round-trips exactly
+        return String.format("%s | %s | PRICE: %." + Math.max(2, spec.getPriceDecimals())
+                        + "f | QTY: %." + Math.max(4, spec.getQuantityDecimals()) + "f | BUYER: %d | SELLER: %d",
+                timestamp.format(TS_FMT), symbol, getPrice(), getQuantity(), buyerClientId, sellerClientId);
     }
 }
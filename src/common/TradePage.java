@@ -0,0 +1,21 @@
+package common;
+
+import java.io.Serializable;
+import java.util.List;
+
+// One page of a trade query; pass nextCursor back to get the following page, null once there is none
+public class TradePage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Trade> trades;
+    private final String nextCursor;
+
+    public TradePage(List<Trade> trades, String nextCursor) {
+        this.trades = trades;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Trade> getTrades() { return trades; }
+    public String getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return nextCursor != null; }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * All client accounts in paged primitive slabs: each account is a run of longs
+ * [registered flag, cash, lots of symbol 0, lots of symbol 1, ...] inside a page of
+ * PAGE_SIZE accounts, so an account costs no objects at all. Ids come from an atomic
+ * counter and every balance change is a single atomic add or CAS on one field, so
+ * matching threads settling different symbols never block each other.
+ * Cash is in InstrumentSpec cash units, holdings in lots.
+ */
+class AccountStore {
+
+    private static final int PAGE_SIZE = 1024;
+    private static final int MAX_PAGES = 1 << 16;
+    private static final int REGISTERED = 0;
+    private static final int CASH = 1;
+    private static final int FIRST_HOLDING = 2;
+
+    private final List<String> symbols;
+    private final Map<String, Integer> symbolIndex = new HashMap<>();
+    private final int stride;
+    private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<>(MAX_PAGES);
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    AccountStore(List<String> symbols) {
+        this.symbols = new ArrayList<>(symbols);
+        for (int i = 0; i < symbols.size(); i++) symbolIndex.put(symbols.get(i), i);
+        this.stride = FIRST_HOLDING + symbols.size();
+    }
+
+    // Index used by the holding methods, -1 for an unknown symbol
+    int symbolIndex(String symbol) {
+        Integer i = symbolIndex.get(symbol);
+        return i != null ? i : -1;
+    }
+
+    String symbolAt(int index) {
+        return symbols.get(index);
+    }
+
+    int symbolCount() {
+        return symbols.size();
+    }
+
+    // Opens an account with starting cash and lots per symbol index; returns its id
+    int register(long cash, long[] holdings) {
+        int id = nextId.getAndIncrement();
+        int page = id / PAGE_SIZE;
+        if (page >= MAX_PAGES) throw new IllegalStateException("Account store is full");
+        AtomicLongArray slab = pages.get(page);
+        if (slab == null) {
+            pages.compareAndSet(page, null, new AtomicLongArray(PAGE_SIZE * stride));
+            slab = pages.get(page);
+        }
+        int base = (id % PAGE_SIZE) * stride;
+        slab.set(base + CASH, cash);
+        for (int i = 0; i < holdings.length; i++) slab.set(base + FIRST_HOLDING + i, holdings[i]);
+        slab.set(base + REGISTERED, 1); // published last, readers check it first
+        return id;
+    }
+
+    boolean exists(int clientId) {
+        AtomicLongArray slab = slab(clientId);
+        return slab != null && slab.get(base(clientId) + REGISTERED) != 0;
+    }
+
+    int size() {
+        return nextId.get() - 1;
+    }
+
+    long getCash(int clientId) {
+        return slab(clientId).get(base(clientId) + CASH);
+    }
+
+    void addCash(int clientId, long units) {
+        slab(clientId).getAndAdd(base(clientId) + CASH, units);
+    }
+
+    // Takes cash if the balance covers it; false leaves the balance untouched. Only positive amounts
+    boolean reserveCash(int clientId, long units) {
+        return reserve(slab(clientId), base(clientId) + CASH, units);
+    }
+
+    long getHolding(int clientId, int symbol) {
+        return slab(clientId).get(base(clientId) + FIRST_HOLDING + symbol);
+    }
+
+    void addHolding(int clientId, int symbol, long lots) {
+        slab(clientId).getAndAdd(base(clientId) + FIRST_HOLDING + symbol, lots);
+    }
+
+    boolean reserveHolding(int clientId, int symbol, long lots) {
+        return reserve(slab(clientId), base(clientId) + FIRST_HOLDING + symbol, lots);
+    }
+
+    private static boolean reserve(AtomicLongArray slab, int index, long amount) {
+        if (amount <= 0) return false;
+        while (true) {
+            long current = slab.get(index);
+            if (current < amount) return false;
+            if (slab.compareAndSet(index, current, current - amount)) return true;
+        }
+    }
+
+    private AtomicLongArray slab(int clientId) {
+        if (clientId <= 0 || clientId / PAGE_SIZE >= MAX_PAGES) return null;
+        return pages.get(clientId / PAGE_SIZE);
+    }
+
+    private int base(int clientId) {
+        return (clientId % PAGE_SIZE) * stride;
+    }
+}
@@ -0,0 +1,120 @@
+package server;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips the archive files of days the simulation clock has left behind. The archive
+ * reads a compacted day through a streaming decompressor, so nothing is unpacked to
+ * disk. Each compacted day is read back once the way a query loads it, so the log shows
+ * what the space saved costs in read time. Meant to run periodically; each run compresses
+ * whatever has closed since the last.
+ */
+public class ArchiveCompactor implements Runnable {
+
+    // A day is left alone this long (simulation time) after its end, for trades still queued
+    private static final long GRACE_MINUTES = 10;
+    private static final DateTimeFormatter DAY_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final TradeArchiver archiver;
+    private final SimulationClock clock;
+    private long bytesBefore;
+    private long bytesAfter;
+    private long daysRead;
+    private long readNanos;
+
+    public ArchiveCompactor(TradeArchiver archiver, SimulationClock clock) {
+        this.archiver = archiver;
+        this.clock = clock;
+    }
+
+    @Override
+    public void run() {
+        LocalDateTime now = clock.getSimulationTime();
+        File[] files = new File(archiver.getArchiveDir()).listFiles((dir, name) -> name.endsWith(".csv") || name.endsWith(".bin"));
+        if (files == null) return;
+        int compacted = 0;
+        for (File file : files) {
+            LocalDate day = dayOf(file.getName());
+            if (day == null || day.plusDays(1).atStartOfDay().plusMinutes(GRACE_MINUTES).isAfter(now)) continue;
+            try {
+                if (compact(file)) compacted++;
+            } catch (Exception e) {
+                System.err.println("[ArchiveCompactor] Error compacting " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        if (compacted > 0) {
+            System.out.printf("[ArchiveCompactor] Compacted %d day files; %s saved so far (%s -> %s), %s%n",
+                    compacted, mb(bytesBefore - bytesAfter), mb(bytesBefore), mb(bytesAfter),
+                    daysRead > 0 ? String.format("%.1f ms per compacted day read", readNanos / 1e6 / daysRead) : "no reads timed");
+        }
+    }
+
+    public long getBytesSaved() {
+        return bytesBefore - bytesAfter;
+    }
+
+    private boolean compact(File file) throws Exception {
+        long length = file.length();
+        File tmp = new File(file.getPath() + ".gz.tmp");
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024)) {
+            copy(in, out, length);
+        }
+        long compressed = tmp.length();
+        if (!archiver.replaceWithCompressed(file, tmp, length).get(30, TimeUnit.SECONDS)) {
+            return false;  // written to meanwhile; next run
+        }
+        bytesBefore += length;
+        bytesAfter += compressed;
+        System.out.printf("[ArchiveCompactor] %s: %s -> %s%s%n", file.getName(), mb(length), mb(compressed),
+                timeFirstRead(new File(file.getPath() + ".gz")));
+        return true;
+    }
+
+    // The first load of the compacted day, through the archive's own gzip read path
+    private String timeFirstRead(File compressed) {
+        try {
+            long start = System.nanoTime();
+            int trades = archiver.readCompressedDay(compressed);
+            long nanos = System.nanoTime() - start;
+            if (trades < 0) return "";
+            daysRead++;
+            readNanos += nanos;
+            return String.format(", read back in %.1f ms (%d trades)", nanos / 1e6, trades);
+        } catch (IOException e) {
+            return ", read back failed: " + e.getMessage();
+        }
+    }
+
+    // Only the bytes the swap will check for, even if the file grows while it is read
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long left = length;
+        while (left > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, left));
+            if (n < 0) throw new EOFException();
+            out.write(buf, 0, n);
+            left -= n;
+        }
+    }
+
+    // SYMBOL_yyyy-MM-dd.csv
+    private static LocalDate dayOf(String name) {
+        int sep = name.lastIndexOf('_');
+        if (sep < 0 || name.length() < sep + 11) return null;
+        try {
+            return LocalDate.parse(name.substring(sep + 1, sep + 11), DAY_FMT);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String mb(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,100 @@
+package server;
+
+import common.Candle;
+import common.CandleResolution;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OHLCV bars of one symbol at one resolution in fixed-size primitive rings.
+ * Bars are addressed by an ever-growing bar number; bar n lives in slot n % capacity,
+ * so only the newest `capacity` bars are kept and memory stays bounded.
+ * Minutes without any update get no bar. Only the symbol's matching thread writes.
+ */
+class CandleSeries {
+
+    private final CandleResolution resolution;
+    private final int capacity;
+    private final long[] openTimes;
+    private final double[] opens;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] closes;
+    private final double[] volumes;
+    private final double[] notionals; // sum of price * quantity, for VWAP
+    private long count;
+
+    CandleSeries(CandleResolution resolution, int capacity) {
+        this.resolution = resolution;
+        this.capacity = capacity;
+        openTimes = new long[capacity];
+        opens = new double[capacity];
+        highs = new double[capacity];
+        lows = new double[capacity];
+        closes = new double[capacity];
+        volumes = new double[capacity];
+        notionals = new double[capacity];
+    }
+
+    CandleResolution getResolution() { return resolution; }
+
+    // Number of bars ever opened; the newest is count - 1
+    long getCount() { return count; }
+
+    // Oldest bar still held
+    long getFirst() { return Math.max(0, count - capacity); }
+
+    // Applies a price (and traded quantity, 0 for a quote) at a simulation time.
+    // Returns true when this opened a new bar, which closes the previous one.
+    boolean update(long time, double price, double quantity) {
+        long barTime = time - Math.floorMod(time, resolution.getMillis());
+        if (count > 0) {
+            int i = slot(count - 1);
+            if (barTime <= openTimes[i]) {
+                highs[i] = Math.max(highs[i], price);
+                lows[i] = Math.min(lows[i], price);
+                closes[i] = price;
+                volumes[i] += quantity;
+                notionals[i] += price * quantity;
+                return false;
+            }
+        }
+        int i = slot(count);
+        openTimes[i] = barTime;
+        opens[i] = price;
+        highs[i] = price;
+        lows[i] = price;
+        closes[i] = price;
+        volumes[i] = quantity;
+        notionals[i] = price * quantity;
+        count++;
+        return count > 1;
+    }
+
+    long openTime(long bar) { return openTimes[slot(bar)]; }
+    double high(long bar) { return highs[slot(bar)]; }
+    double low(long bar) { return lows[slot(bar)]; }
+    double volume(long bar) { return volumes[slot(bar)]; }
+    double notional(long bar) { return notionals[slot(bar)]; }
+
+    Candle toCandle(String symbol, long bar) {
+        int i = slot(bar);
+        return new Candle(symbol, resolution, openTimes[i], opens[i], highs[i], lows[i], closes[i], volumes[i]);
+    }
+
+    // Bars whose open time is within [from, to], oldest first
+    List<Candle> range(String symbol, long from, long to) {
+        List<Candle> result = new ArrayList<>();
+        for (long bar = getFirst(); bar < count; bar++) {
+            long t = openTime(bar);
+            if (t > to) break;
+            if (t >= from) result.add(toCandle(symbol, bar));
+        }
+        return result;
+    }
+
+    private int slot(long bar) {
+        return (int) (bar % capacity);
+    }
+}
@@ -2,35 +2,96 @@ package server;
 
 import common.ExchangeService;
 
+import java.net.NetworkInterface;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class ExchangeServer {
 
     private static final int RMI_PORT  = 1099;
     private static final int TCP_PORT  = 5000;
     private static final String SERVICE_NAME = "ExchangeService";
+    // One single-writer matching thread per core, each owning a slice of the symbols
+    private static final int MATCHING_SHARDS = Runtime.getRuntime().availableProcessors();
+    // -Dberza.intake=direct|ring, -Dberza.wait=blocking|yielding|busy_spin
+    private static final String INTAKE_MODE = System.getProperty("berza.intake", "direct");
+    private static final String WAIT_STRATEGY = System.getProperty("berza.wait", "blocking");
+    private static final int RING_SIZE = 4096;
+    // -Dberza.feed.selectors=N, threads serving all TCP feed subscribers
+    private static final int FEED_SELECTORS = Integer.getInteger("berza.feed.selectors", 2);
+    // -Dberza.multicast=group:port turns on the UDP feed; missed packets are served on RECOVERY_PORT
+    private static final String MULTICAST = System.getProperty("berza.multicast");
+    private static final int RECOVERY_PORT = Integer.getInteger("berza.recovery.port", 5001);
+    private static final int MULTICAST_TTL = Integer.getInteger("berza.multicast.ttl", 1);
+    private static final String MULTICAST_INTERFACE = System.getProperty("berza.multicast.interface");
+    // -Dberza.gateway.port=N, binary order entry next to RMI; 0 turns it off
+    private static final int GATEWAY_PORT = Integer.getInteger("berza.gateway.port", 5002);
+    // -Dberza.archive.queue=N trades waiting for disk before matching blocks, -Dberza.archive.fsync=none|batch|interval
+    private static final int ARCHIVE_QUEUE = Integer.getInteger("berza.archive.queue", TradeArchiver.DEFAULT_QUEUE_CAPACITY);
+    private static final String ARCHIVE_FSYNC = System.getProperty("berza.archive.fsync", "none");
+    // -Dberza.archive.format=text|binary; binary also converts the existing CSV days at startup
+    private static final String ARCHIVE_FORMAT = System.getProperty("berza.archive.format", "text");
+    // -Dberza.archive.cache=N trades of recent days kept in memory for getTradesForDay; 0 turns it off
+    private static final int ARCHIVE_CACHE = Integer.getInteger("berza.archive.cache", TradeArchiver.DEFAULT_CACHE_TRADES);
+    // -Dberza.archive.compact=N seconds between gzip runs over closed days; 0 turns it off
+    private static final int ARCHIVE_COMPACT_SECONDS = Integer.getInteger("berza.archive.compact", 60);
 
     public static void main(String[] args) throws Exception {
         System.out.println("Digital Exchange Server Starting");
 
         SimulationClock clock = new SimulationClock(); 
-        TradeArchiver archiver = new TradeArchiver("trades_archive");
+        TradeArchiver archiver = new TradeArchiver("trades_archive", ARCHIVE_QUEUE,
+                TradeArchiver.FsyncPolicy.valueOf(ARCHIVE_FSYNC.toUpperCase()),
+                TradeArchiver.Format.valueOf(ARCHIVE_FORMAT.toUpperCase()), ARCHIVE_CACHE);
         Thread archiverThread = new Thread(archiver, "TradeArchiver");
         archiverThread.setDaemon(true);
         archiverThread.start();
 
-        MarketEngine engine = new MarketEngine(archiver, clock);
+        Function<List<String>, MatchingIntake> intake;
+        if (INTAKE_MODE.equalsIgnoreCase("ring")) {
+            RingBufferIntake.WaitStrategy wait = RingBufferIntake.WaitStrategy.valueOf(WAIT_STRATEGY.toUpperCase());
+            intake = symbols -> new RingBufferIntake(MATCHING_SHARDS, symbols, RING_SIZE, wait);
+            System.out.println("[ExchangeServer] Order intake: ring buffer (" + wait + ")");
+        } else {
+            intake = symbols -> new MatchingShards(MATCHING_SHARDS, symbols);
+            System.out.println("[ExchangeServer] Order intake: direct");
+        }
+        MarketEngine engine = new MarketEngine(archiver, clock, intake);
+        if (ARCHIVE_FORMAT.equalsIgnoreCase("binary")) {
+            archiver.convertTextArchives();  // needs the specs the engine registered
+        }
 
         // Start TCP server
-        TcpMarketServer tcpServer = new TcpMarketServer(TCP_PORT, engine);
+        TcpMarketServer tcpServer = new TcpMarketServer(TCP_PORT, engine, FEED_SELECTORS);
         Thread tcpThread = new Thread(tcpServer, "TcpMarketServer");
         tcpThread.setDaemon(true);
         tcpThread.start();
 
+        if (GATEWAY_PORT > 0) {
+            Thread gatewayThread = new Thread(new OrderGateway(GATEWAY_PORT, engine), "OrderGateway");
+            gatewayThread.setDaemon(true);
+            gatewayThread.start();
+        }
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+
+        if (MULTICAST != null) {
+            int colon = MULTICAST.lastIndexOf(':');
+            MulticastPublisher multicast = new MulticastPublisher(MULTICAST.substring(0, colon),
+                    Integer.parseInt(MULTICAST.substring(colon + 1)), MULTICAST_TTL,
+                    MULTICAST_INTERFACE != null ? NetworkInterface.getByName(MULTICAST_INTERFACE) : null);
+            engine.getFeed().setMulticast(multicast);
+            scheduler.scheduleAtFixedRate(multicast::heartbeat, 1, 1, TimeUnit.SECONDS);
+            Thread recoveryThread = new Thread(new RecoveryServer(RECOVERY_PORT, engine), "RecoveryServer");
+            recoveryThread.setDaemon(true);
+            recoveryThread.start();
+        }
+
         // Start RMI registry and bind service
         Registry registry = LocateRegistry.createRegistry(RMI_PORT);
         ExchangeServiceImpl service = new ExchangeServiceImpl(engine, TCP_PORT);
@@ -38,7 +99,6 @@ public class ExchangeServer {
         System.out.println("[ExchangeServer] RMI service bound: " + SERVICE_NAME + " on port " + RMI_PORT);
 
         //price movements (every 2 real seconds)
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
         scheduler.scheduleAtFixedRate(() -> {
             try {
                 engine.simulatePriceMovements();
@@ -46,6 +106,17 @@ public class ExchangeServer {
                 System.err.println("[Scheduler] Error: " + e.getMessage());
             }
         }, 2, 2, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(archiver::logCacheStats, 60, 60, TimeUnit.SECONDS);
+        if (ARCHIVE_COMPACT_SECONDS > 0) {
+            // own thread, compressing a big day must not hold up the price ticks
+            ScheduledExecutorService compaction = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ArchiveCompactor");
+                t.setDaemon(true);
+                return t;
+            });
+            ArchiveCompactor compactor = new ArchiveCompactor(archiver, clock);
+            compaction.scheduleWithFixedDelay(compactor, ARCHIVE_COMPACT_SECONDS, ARCHIVE_COMPACT_SECONDS, TimeUnit.SECONDS);
+        }
 
         System.out.println("[ExchangeServer] Ready. Simulation clock started.");
         System.out.println("[ExchangeServer] Simulation time: " + clock.getSimulationTimeString());
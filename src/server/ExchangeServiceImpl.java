@@ -4,6 +4,7 @@ import common.*;
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.time.LocalDateTime;
 import java.util.List;
 
 public class ExchangeServiceImpl extends UnicastRemoteObject implements ExchangeService {
@@ -37,6 +38,11 @@ public class ExchangeServiceImpl extends UnicastRemoteObject implements Exchange
         return engine.getAskOrders(symbol);
     }
 
+    @Override
+    public MarketDepth getDepth(String symbol, int levels) throws RemoteException {
+        return engine.getDepth(symbol, levels);
+    }
+
     @Override
     public String placeBuyOrder(int clientId, String symbol, double price, double quantity) throws RemoteException {
         return engine.placeBuyOrder(clientId, symbol, price, quantity);
@@ -47,11 +53,31 @@ public class ExchangeServiceImpl extends UnicastRemoteObject implements Exchange
         return engine.placeSellOrder(clientId, symbol, price, quantity);
     }
 
+    @Override
+    public String cancelOrder(int clientId, long orderId) throws RemoteException {
+        return engine.cancelOrder(clientId, orderId);
+    }
+
+    @Override
+    public String amendOrder(int clientId, long orderId, double newPrice, double newQuantity) throws RemoteException {
+        return engine.amendOrder(clientId, orderId, newPrice, newQuantity);
+    }
+
     @Override
     public List<Trade> getTradesForDay(String symbol, String day) throws RemoteException {
         return engine.getTradesForDay(symbol, day);
     }
 
+    @Override
+    public TradePage getTrades(String symbol, LocalDateTime from, LocalDateTime to, int limit, String cursor) throws RemoteException {
+        return engine.getTrades(symbol, from, to, limit, cursor);
+    }
+
+    @Override
+    public List<Candle> getCandles(String symbol, String resolution, LocalDateTime from, LocalDateTime to) throws RemoteException {
+        return engine.getCandles(symbol, resolution, from, to);
+    }
+
     @Override
     public ClientAccount getClientAccount(int clientId) throws RemoteException {
         return engine.getClientAccount(clientId);
@@ -0,0 +1,78 @@
+package server;
+
+import common.DepthUpdate;
+import common.FeedProtocol;
+import common.MarketUpdate;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * One published update or depth change, encoded at most once per wire protocol and shared by every
+ * connection that sends it. The arrays are never written after encoding, so connections
+ * queue the same bytes instead of copies. Encoding happens lazily under the FeedPublisher
+ * lock, the only place that touches the message before it is queued.
+ */
+final class FeedMessage {
+
+    // Exactly one of the two is set
+    private final MarketUpdate update;
+    private final DepthUpdate depth;
+    private final int symbolId;
+    private byte[] javaChunk;
+    private byte[] binaryFrame;
+
+    FeedMessage(MarketUpdate update, int symbolId) {
+        this.update = update;
+        this.depth = null;
+        this.symbolId = symbolId;
+    }
+
+    FeedMessage(DepthUpdate depth, int symbolId) {
+        this.update = null;
+        this.depth = depth;
+        this.symbolId = symbolId;
+    }
+
+    MarketUpdate getUpdate() { return update; }
+    DepthUpdate getDepth() { return depth; }
+    int getSymbolId() { return symbolId; }
+
+    // Price updates and trades only matter for their latest price, so a backed-up connection may skip older ones
+    boolean isConflatable() {
+        if (update == null) return false;
+        MarketUpdate.UpdateType type = update.getType();
+        return type == MarketUpdate.UpdateType.PRICE_UPDATE || type == MarketUpdate.UpdateType.TRADE_EXECUTED;
+    }
+
+    // Binary frame type this message's record belongs in
+    byte frameType() {
+        return depth != null ? FeedProtocol.FRAME_DEPTH : FeedProtocol.frameType(update);
+    }
+
+    void putRecord(ByteBuffer buf) {
+        if (depth != null) {
+            FeedProtocol.putDepth(buf, depth, symbolId);
+        } else if (update.getCandle() != null) {
+            FeedProtocol.putCandle(buf, update, symbolId);
+        } else {
+            FeedProtocol.putUpdate(buf, update, symbolId);
+        }
+    }
+
+    byte[] javaChunk() {
+        if (javaChunk == null) javaChunk = JavaStreamCodec.encode(depth != null ? depth : (Serializable) update);
+        return javaChunk;
+    }
+
+    byte[] binaryFrame() {
+        if (binaryFrame == null) {
+            byte type = frameType();
+            ByteBuffer buf = ByteBuffer.allocate(FeedProtocol.HEADER_SIZE + FeedProtocol.recordSize(type));
+            FeedProtocol.putHeader(buf, type, 1);
+            putRecord(buf);
+            binaryFrame = buf.array();
+        }
+        return binaryFrame;
+    }
+}
@@ -0,0 +1,323 @@
+package server;
+
+import common.DepthUpdate;
+import common.FeedProtocol;
+import common.MarketUpdate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sends batches of updates to the feed connections. Everything one matching run or one
+ * simulation tick produced is published together: each connection gets one chunk with
+ * just its symbols (one multi-record binary frame, or the legacy objects back to back),
+ * queued and flushed once. Connections with the same subscription share the same chunk,
+ * so encoding stays independent of the number of subscribers.
+ *
+ * The matching shards and the price clock only queue their batches; one publisher thread
+ * stamps them with the feed sequence, encodes them, and queues them on the connections
+ * and the multicast channel. So matching never waits on a lock the feed holds or on work
+ * that grows with the number of subscribers, and every connection sees sequences in
+ * increasing order. The last REPLAY_CAPACITY messages and the latest price of every
+ * symbol are kept for the multicast recovery channel.
+ *
+ * Order-book depth goes only to connections that asked for it with DEPTH. The snapshot a
+ * new depth subscriber gets is taken on the symbol's shard and queued behind the deltas
+ * that shard already handed over, so it always lands between the deltas it already
+ * contains and the ones that follow it.
+ */
+class FeedPublisher {
+
+    private static final int MAX_RECORDS_PER_FRAME = 0xFFFF;
+    private static final int REPLAY_CAPACITY = 1 << 16;
+    // A resume that would queue more than this gets the snapshot instead
+    private static final int MAX_RESUME_BYTES = 64 * 1024;
+    // Batches waiting for the publisher thread; a full queue holds the shards back
+    private static final int QUEUE_CAPACITY = 1 << 16;
+
+    private final SubscriptionIndex subscriptions;
+    // Depth subscribers per symbol id; changed by the publisher thread, read by the shards to skip idle books
+    private final AtomicReferenceArray<TcpClientHandler[]> depthSubscribers;
+    // DEPTH requests queued but not yet applied, so the shards keep producing deltas for them
+    private final AtomicIntegerArray pendingDepth;
+    private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    private final List<String> symbols;
+    private long sequence;
+    // Message with sequence s sits at s & (REPLAY_CAPACITY - 1)
+    private final FeedMessage[] history = new FeedMessage[REPLAY_CAPACITY];
+    private final MarketUpdate[] lastPrice;
+    private MulticastPublisher multicast;
+
+    // Per batch, guarded by this: connections reached and their messages, chunks by message list
+    private final List<TcpClientHandler> touched = new ArrayList<>();
+    private final Map<List<FeedMessage>, byte[]> binaryChunks = new HashMap<>();
+    private final Map<List<FeedMessage>, byte[]> javaChunks = new HashMap<>();
+
+    FeedPublisher(List<String> symbols) {
+        for (int i = 0; i < symbols.size(); i++) symbolIds.put(symbols.get(i), i);
+        this.symbols = symbols;
+        this.subscriptions = new SubscriptionIndex(symbols);
+        this.lastPrice = new MarketUpdate[symbols.size()];
+        this.depthSubscribers = new AtomicReferenceArray<>(symbols.size());
+        for (int i = 0; i < symbols.size(); i++) depthSubscribers.set(i, new TcpClientHandler[0]);
+        this.pendingDepth = new AtomicIntegerArray(symbols.size());
+        thread = new Thread(this::run, "FeedPublisher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (true) {
+            Runnable task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("[FeedPublisher] Publishing failed: " + e);
+            }
+        }
+    }
+
+    void shutdown() {
+        thread.interrupt();
+    }
+
+    private void enqueue(Runnable task) {
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("[FeedPublisher] Interrupted, update not published");
+        }
+    }
+
+    // Every batch published from now on also goes out on the multicast channel
+    synchronized void setMulticast(MulticastPublisher multicast) {
+        multicast.start(sequence + 1);
+        this.multicast = multicast;
+    }
+
+    SubscriptionIndex getSubscriptions() {
+        return subscriptions;
+    }
+
+    synchronized long getSequence() {
+        return sequence;
+    }
+
+    void publish(List<MarketUpdate> updates) {
+        publish(updates, Collections.emptyList());
+    }
+
+    // Market updates go to the symbol's subscribers, depth changes to its depth subscribers.
+    // Returns at once; the lists belong to the publisher from here on.
+    void publish(List<MarketUpdate> updates, List<DepthUpdate> depth) {
+        if (updates.isEmpty() && depth.isEmpty()) return;
+        enqueue(() -> send(updates, depth));
+    }
+
+    // Publisher thread
+    private synchronized void send(List<MarketUpdate> updates, List<DepthUpdate> depth) {
+        List<FeedMessage> batch = new ArrayList<>(updates.size());
+        for (MarketUpdate update : updates) {
+            update.setSequence(++sequence);
+            FeedMessage message = new FeedMessage(update, symbolIds.get(update.getSymbol()));
+            history[(int) sequence & (REPLAY_CAPACITY - 1)] = message;
+            if (update.getCandle() == null) lastPrice[message.getSymbolId()] = update;
+            batch.add(message);
+            collect(message, subscriptions.subscribers(message.getSymbolId()));
+            collect(message, subscriptions.allSymbolSubscribers());
+        }
+        for (DepthUpdate change : depth) {
+            int symbolId = symbolIds.get(change.getSymbol());
+            collect(new FeedMessage(change, symbolId), depthSubscribers.get(symbolId));
+        }
+        if (multicast != null && !batch.isEmpty()) multicast.send(batch);
+        sendTouched();
+    }
+
+    // RESUME: whatever the connection's subscription missed after lastSequence, or the latest
+    // price of each of its symbols once that is no longer held or too much; then an END with
+    // the current sequence. Live messages it already got may be sent again, the client drops
+    // sequences it has seen.
+    synchronized void resume(TcpClientHandler handler, long lastSequence) {
+        List<FeedMessage> missed = new ArrayList<>();
+        // A sequence ahead of ours comes from before a server restart
+        boolean replay = lastSequence >= 0 && lastSequence <= sequence && lastSequence >= sequence - REPLAY_CAPACITY;
+        int bytes = 0;
+        for (long s = lastSequence + 1; replay && s <= sequence; s++) {
+            FeedMessage message = history[(int) s & (REPLAY_CAPACITY - 1)];
+            if (!subscriptions.wants(handler, message.getSymbolId())) continue;
+            bytes += handler.encodedSize(message);
+            replay = bytes <= MAX_RESUME_BYTES;
+            missed.add(message);
+        }
+        if (!replay) {
+            missed.clear();
+            for (FeedMessage message : snapshotMessages()) {
+                if (subscriptions.wants(handler, message.getSymbolId())) missed.add(message);
+            }
+        }
+        System.out.println("[FeedPublisher] Resuming client after " + lastSequence + ": "
+                + (replay ? "replayed " : "snapshot of ") + missed.size());
+        collect(missed, handler);
+        sendTouched();
+        handler.sendEnd(sequence);
+    }
+
+    boolean hasDepthSubscribers(int symbolId) {
+        return depthSubscribers.get(symbolId).length > 0 || pendingDepth.get(symbolId) > 0;
+    }
+
+    // DEPTH: starts depth for the symbol with a fresh snapshot; asking again just resends the
+    // snapshot. Called on the symbol's shard, right after the snapshot was taken there.
+    void subscribeDepth(TcpClientHandler handler, int symbolId, List<DepthUpdate> levels) {
+        pendingDepth.incrementAndGet(symbolId);
+        enqueue(() -> addDepthSubscriber(handler, symbolId, levels));
+    }
+
+    private synchronized void addDepthSubscriber(TcpClientHandler handler, int symbolId, List<DepthUpdate> levels) {
+        pendingDepth.decrementAndGet(symbolId);
+        if (!handler.isOpen()) return;  // closed while this was queued; its unsubscribe may have run already
+        TcpClientHandler[] list = depthSubscribers.get(symbolId);
+        if (!Arrays.asList(list).contains(handler)) depthSubscribers.set(symbolId, SubscriptionIndex.with(list, handler));
+        List<FeedMessage> snapshot = new ArrayList<>();
+        for (DepthUpdate level : levels) snapshot.add(new FeedMessage(level, symbolId));
+        handler.sendSnapshot(this, snapshot);
+        binaryChunks.clear();
+        javaChunks.clear();
+    }
+
+    // Queued like a batch, so no caller waits on the publisher lock
+    void unsubscribeDepth(TcpClientHandler handler, int symbolId) {
+        enqueue(() -> removeDepthSubscriber(handler, symbolId));
+    }
+
+    private synchronized void removeDepthSubscriber(TcpClientHandler handler, int symbolId) {
+        depthSubscribers.set(symbolId, SubscriptionIndex.without(depthSubscribers.get(symbolId), handler));
+    }
+
+    private void sendTouched() {
+        for (TcpClientHandler handler : touched) {
+            handler.sendBatch(this);
+        }
+        touched.clear();
+        binaryChunks.clear();
+        javaChunks.clear();
+    }
+
+    private void collect(List<FeedMessage> messages, TcpClientHandler handler) {
+        if (messages.isEmpty()) return;
+        if (handler.batch.isEmpty()) touched.add(handler);
+        handler.batch.addAll(messages);
+    }
+
+    private void collect(FeedMessage message, TcpClientHandler[] handlers) {
+        for (TcpClientHandler handler : handlers) {
+            if (handler.batch.isEmpty()) touched.add(handler);
+            handler.batch.add(message);
+        }
+    }
+
+    // Recovery: frames with the messages from..to and an END frame, or just END -1 once
+    // part of the range has left the replay ring
+    synchronized byte[] replay(long from, long to) {
+        to = Math.min(to, sequence);
+        if (from < 1 || from <= sequence - REPLAY_CAPACITY || to - from >= REPLAY_CAPACITY) {
+            return FeedProtocol.encodeEnd(-1);
+        }
+        List<FeedMessage> messages = new ArrayList<>();
+        for (long s = from; s <= to; s++) messages.add(history[(int) s & (REPLAY_CAPACITY - 1)]);
+        return withEnd(encodeFrames(messages), Math.max(to, from - 1));
+    }
+
+    // Recovery: the latest price of every symbol that has one, current as of the END sequence.
+    // Trades are reported as plain price updates so a snapshot never looks like a new trade.
+    synchronized byte[] snapshot() {
+        return withEnd(encodeFrames(snapshotMessages()), sequence);
+    }
+
+    private List<FeedMessage> snapshotMessages() {
+        List<FeedMessage> messages = new ArrayList<>();
+        for (int id = 0; id < lastPrice.length; id++) {
+            MarketUpdate u = lastPrice[id];
+            if (u == null) continue;
+            messages.add(new FeedMessage(new MarketUpdate(MarketUpdate.UpdateType.PRICE_UPDATE, u.getSymbol(),
+                    u.getPrice(), u.getChangePercent(), u.getSimulationTime(), u.getSequence(), u.getTimestamp()), id));
+        }
+        return messages;
+    }
+
+    List<String> getSymbols() {
+        return symbols;
+    }
+
+    static byte[] withEnd(byte[] frames, long sequence) {
+        byte[] end = FeedProtocol.encodeEnd(sequence);
+        byte[] result = Arrays.copyOf(frames, frames.length + end.length);
+        System.arraycopy(end, 0, result, frames.length, end.length);
+        return result;
+    }
+
+    // One chunk holding all the messages, encoded once per distinct message list
+    byte[] binaryChunk(List<FeedMessage> messages) {
+        byte[] chunk = binaryChunks.get(messages);
+        if (chunk == null) {
+            chunk = encodeFrames(messages);
+            binaryChunks.put(new ArrayList<>(messages), chunk);
+        }
+        return chunk;
+    }
+
+    byte[] javaChunk(List<FeedMessage> messages) {
+        byte[] chunk = javaChunks.get(messages);
+        if (chunk == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (FeedMessage m : messages) out.write(m.javaChunk(), 0, m.javaChunk().length);
+            chunk = out.toByteArray();
+            javaChunks.put(new ArrayList<>(messages), chunk);
+        }
+        return chunk;
+    }
+
+    // Consecutive records of the same type share a frame header
+    static byte[] encodeFrames(List<FeedMessage> messages) {
+        int size = 0;
+        byte type = -1;
+        int count = 0;
+        for (FeedMessage m : messages) {
+            byte t = m.frameType();
+            if (t != type || count == MAX_RECORDS_PER_FRAME) {
+                size += FeedProtocol.HEADER_SIZE;
+                type = t;
+                count = 0;
+            }
+            size += FeedProtocol.recordSize(t);
+            count++;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        int i = 0;
+        while (i < messages.size()) {
+            type = messages.get(i).frameType();
+            int end = i;
+            while (end < messages.size() && end - i < MAX_RECORDS_PER_FRAME && messages.get(end).frameType() == type) {
+                end++;
+            }
+            FeedProtocol.putHeader(buf, type, end - i);
+            for (; i < end; i++) messages.get(i).putRecord(buf);
+        }
+        return buf.array();
+    }
+}
@@ -0,0 +1,85 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread serving many feed connections. Reads and writes go through two
+ * direct buffers owned by this thread, so an idle connection holds no buffer memory and
+ * the thread count stays fixed however many subscribers connect.
+ */
+class FeedSelector implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long SWEEP_INTERVAL_MS = 1000L;
+
+    private final Selector selector;
+    private final Queue<TcpClientHandler> newConnections = new ConcurrentLinkedQueue<>();
+    private final Queue<TcpClientHandler> flushRequests = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private volatile boolean running = true;
+
+    FeedSelector() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    void register(TcpClientHandler handler) {
+        newConnections.add(handler);
+        selector.wakeup();
+    }
+
+    // Called by publishing threads when a connection goes from idle to having data queued
+    void requestFlush(TcpClientHandler handler) {
+        flushRequests.add(handler);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL_MS;
+        while (running) {
+            try {
+                selector.select(SWEEP_INTERVAL_MS);
+            } catch (IOException e) {
+                System.err.println("[FeedSelector] Select failed: " + e.getMessage());
+                break;
+            }
+
+            TcpClientHandler handler;
+            while ((handler = newConnections.poll()) != null) handler.attach(selector);
+            while ((handler = flushRequests.poll()) != null) handler.flush(writeBuffer);
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                TcpClientHandler h = (TcpClientHandler) key.attachment();
+                if (key.isValid() && key.isReadable()) h.read(readBuffer);
+                if (key.isValid() && key.isWritable()) h.flush(writeBuffer);
+            }
+
+            // Reap clients that fell too far behind; they may not have written or read anything since
+            long now = System.currentTimeMillis();
+            if (now >= nextSweep) {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.isValid()) ((TcpClientHandler) key.attachment()).sweep(now);
+                }
+                nextSweep = now + SWEEP_INTERVAL_MS;
+            }
+        }
+        for (SelectionKey key : selector.keys()) ((TcpClientHandler) key.attachment()).close();
+        try { selector.close(); } catch (IOException ignored) {}
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+}
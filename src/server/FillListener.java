@@ -0,0 +1,8 @@
+package server;
+
+// Receives fills from OrderBook.matchOrders in execution order. Called while the book is
+// locked; the orders are pooled, so implementations must not keep them or call back into the book.
+interface FillListener {
+
+    void onFill(RestingOrder bid, RestingOrder ask, long priceTicks, long lots);
+}
@@ -0,0 +1,101 @@
+package server;
+
+import common.Candle;
+import common.CandleResolution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All candle series of one instrument plus its rolling 24h high/low/volume/VWAP,
+ * updated incrementally from every trade and simulated price move.
+ * Only the symbol's matching thread touches it.
+ */
+class InstrumentCandles {
+
+    private static final long DAY_MS = CandleResolution.D1.getMillis();
+
+    private final String symbol;
+    private final CandleSeries[] series;
+    private final CandleSeries minutes;
+
+    // Rolling 24h over the 1m bars starting at bar windowStart
+    private long windowStart;
+    private double high24h;
+    private double low24h;
+    private double volume24h;
+    private double notional24h;
+
+    InstrumentCandles(String symbol) {
+        this.symbol = symbol;
+        CandleResolution[] resolutions = CandleResolution.values();
+        series = new CandleSeries[resolutions.length];
+        for (CandleResolution r : resolutions) {
+            series[r.ordinal()] = new CandleSeries(r, capacity(r));
+        }
+        minutes = series[CandleResolution.M1.ordinal()];
+    }
+
+    // How many bars to keep: a day of minutes (plus the open one), a week of 5m, a month of hours, a year of days
+    private static int capacity(CandleResolution r) {
+        switch (r) {
+            case M1: return (int) (DAY_MS / r.getMillis()) + 1;
+            case M5: return 7 * 24 * 12;
+            case H1: return 30 * 24;
+            default: return 365;
+        }
+    }
+
+    // Returns the bars this update closed (usually none)
+    List<Candle> update(long time, double price, double quantity) {
+        List<Candle> closed = Collections.emptyList();
+        for (CandleSeries s : series) {
+            if (s.update(time, price, quantity)) {
+                if (closed.isEmpty()) closed = new ArrayList<>(2);
+                closed.add(s.toCandle(symbol, s.getCount() - 2));
+            }
+        }
+        updateRolling(time, price, quantity);
+        return closed;
+    }
+
+    private void updateRolling(long time, double price, double quantity) {
+        boolean evicted = false;
+        while (windowStart < minutes.getCount() && minutes.openTime(windowStart) <= time - DAY_MS) {
+            windowStart++;
+            evicted = true;
+        }
+        if (evicted || minutes.getCount() == 1) {
+            // Rescan once per evicted minute; exact again, so running sums never drift
+            high24h = Double.NEGATIVE_INFINITY;
+            low24h = Double.POSITIVE_INFINITY;
+            volume24h = 0;
+            notional24h = 0;
+            for (long bar = windowStart; bar < minutes.getCount(); bar++) {
+                high24h = Math.max(high24h, minutes.high(bar));
+                low24h = Math.min(low24h, minutes.low(bar));
+                volume24h += minutes.volume(bar);
+                notional24h += minutes.notional(bar);
+            }
+        } else {
+            high24h = Math.max(high24h, price);
+            low24h = Math.min(low24h, price);
+            volume24h += quantity;
+            notional24h += price * quantity;
+        }
+    }
+
+    double getHigh24h() { return high24h; }
+    double getLow24h() { return low24h; }
+    double getVolume24h() { return volume24h; }
+
+    // Volume weighted average trade price of the last 24h, 0 without trades
+    double getVwap24h() {
+        return volume24h > 0 ? notional24h / volume24h : 0;
+    }
+
+    List<Candle> getCandles(CandleResolution resolution, long from, long to) {
+        return series[resolution.ordinal()].range(symbol, from, to);
+    }
+}
@@ -0,0 +1,101 @@
+package server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Just enough of the Java serialization stream protocol to serve the legacy feed clients
+ * (ObjectOutputStream/ObjectInputStream) from non-blocking channels: the stream header,
+ * objects as self-contained chunks, and the String commands clients send.
+ */
+final class JavaStreamCodec {
+
+    static final int STREAM_MAGIC = 0xACED0005;
+
+    private static final byte TC_REFERENCE = 0x71;
+    private static final byte TC_STRING = 0x74;
+    private static final byte TC_RESET = 0x79;
+    private static final int BASE_WIRE_HANDLE = 0x7E0000;
+    private static final int HEADER_LENGTH = 4;
+
+    private JavaStreamCodec() {}
+
+    static byte[] streamHeader() {
+        return ByteBuffer.allocate(HEADER_LENGTH).putInt(STREAM_MAGIC).array();
+    }
+
+    // One object as a stream chunk that starts with TC_RESET, so the reader's handle table is
+    // empty again and the chunk decodes the same whatever was sent before it
+    static byte[] encode(Serializable object) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(object);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory stream, only fails on a non-serializable field
+        }
+        byte[] stream = bos.toByteArray();
+        byte[] chunk = new byte[stream.length - HEADER_LENGTH + 1];
+        chunk[0] = TC_RESET;
+        System.arraycopy(stream, HEADER_LENGTH, chunk, 1, stream.length - HEADER_LENGTH);
+        return chunk;
+    }
+
+    // Reads the top-level Strings of one client's stream; keeps the handle table between calls
+    static final class StringReader {
+        private final List<String> handles = new ArrayList<>();
+
+        // Next complete String, or null if the buffer ends mid-element (nothing is consumed then)
+        String next(ByteBuffer in) throws IOException {
+            while (in.hasRemaining()) {
+                int start = in.position();
+                byte tc = in.get();
+                switch (tc) {
+                    case TC_RESET:
+                        handles.clear();
+                        continue;
+                    case TC_STRING: {
+                        String s = readUtf(in);
+                        if (s == null) break;
+                        handles.add(s);
+                        return s;
+                    }
+                    case TC_REFERENCE: {
+                        if (in.remaining() < 4) break;
+                        int handle = in.getInt() - BASE_WIRE_HANDLE;
+                        if (handle < 0 || handle >= handles.size()) throw new IOException("Bad stream reference");
+                        return handles.get(handle);
+                    }
+                    default:
+                        throw new IOException("Unsupported stream element 0x" + Integer.toHexString(tc & 0xFF));
+                }
+                in.position(start);
+                return null;
+            }
+            return null;
+        }
+
+    }
+
+    // A DataOutput.writeUTF string (u16 length + modified UTF-8), or null if it hasn't all arrived yet.
+    // Also the body of TC_STRING, and how binary feed clients send their commands.
+    static String readUtf(ByteBuffer in) throws IOException {
+        if (in.remaining() < 2) return null;
+        int length = in.getShort(in.position()) & 0xFFFF;
+        if (in.remaining() < 2 + length) return null;
+        in.getShort();
+        byte[] utf = new byte[length];
+        in.get(utf);
+        // Commands are plain ASCII in practice; modified UTF-8 only differs for \0 and supplementary chars
+        for (byte b : utf) {
+            if (b < 0) {
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(
+                        ByteBuffer.allocate(length + 2).putShort((short) length).put(utf).array()));
+                return data.readUTF();
+            }
+        }
+        return new String(utf, StandardCharsets.US_ASCII);
+    }
+}
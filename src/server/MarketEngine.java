@@ -3,75 +3,110 @@ package server;
 import common.*;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
 
 public class MarketEngine {
 
     private final Map<String, FinancialInstrument> instruments = new ConcurrentHashMap<>();
+    private final Map<String, InstrumentSpec> specs = new ConcurrentHashMap<>();
     private final Map<String, OrderBook> orderBooks = new ConcurrentHashMap<>();
-    private final Map<Integer, ClientAccount> accounts = new ConcurrentHashMap<>();
-    private final Map<String, List<Double>> priceHistory1h = new ConcurrentHashMap<>();
-    private final Map<String, List<Double>> priceHistory24h = new ConcurrentHashMap<>();
-    private final Map<String, List<Double>> priceHistory7d = new ConcurrentHashMap<>();
+    private final Map<String, TradeHandler> fillListeners = new ConcurrentHashMap<>();
+    // Resting orders by id, so cancel and amend go straight to the order
+    private final Map<Long, RestingOrder> orderIndex = new ConcurrentHashMap<>();
+    private final Map<String, PriceWindow> priceHistory1h = new ConcurrentHashMap<>();
+    private final Map<String, PriceWindow> priceHistory24h = new ConcurrentHashMap<>();
+    private final Map<String, PriceWindow> priceHistory7d = new ConcurrentHashMap<>();
+    // OHLCV bars and rolling 24h stats; written only by the symbol's matching thread
+    private final Map<String, InstrumentCandles> candles = new ConcurrentHashMap<>();
 
     private final TradeArchiver archiver;
     private final SimulationClock clock;
-    private final List<TcpClientHandler> tcpClients = new CopyOnWriteArrayList<>();
+    // Instrument symbols in listing order, used to spread them over matching shards
+    private final List<String> symbols = new ArrayList<>();
+    // Symbol ids of the binary feed: the listing position
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    private final MatchingIntake shards;
+    private final AccountStore accounts;
+    // Sequences and fans out feed updates, one batch per matching run or price tick
+    private final FeedPublisher feed;
 
     private static final double INITIAL_CLIENT_BALANCE = 100_000.0;
-
-    public MarketEngine(TradeArchiver archiver, SimulationClock clock) {
+    private static final int MAX_DEPTH_LEVELS = 100;
+    private static final long MINUTE_MS = 60_000L;
+    private static final long HOUR_MS = 60 * MINUTE_MS;
+    private static final int REGISTRATION_LOG_LIMIT = 100;
+    private static final int REGISTRATION_LOG_EVERY = 10_000;
+
+    // The intake is built once the symbols are known, so it can spread them over its shards
+    public MarketEngine(TradeArchiver archiver, SimulationClock clock, Function<List<String>, MatchingIntake> intake) {
         this.archiver = archiver;
         this.clock = clock;
         initializeInstruments();
+        this.accounts = new AccountStore(symbols);
+        this.feed = new FeedPublisher(symbols);
+        this.shards = intake.apply(Collections.unmodifiableList(symbols));
     }
 
     private void initializeInstruments() {
+        // symbol, name, price, tick size, lot size
         Object[][] data = {
-            {"BTC",  "Bitcoin",          67383.0},
-            {"ETH",  "Ethereum",          1946.0},
-            {"BNB",  "BNB",                614.0},
-            {"SOL",  "Solana",             83.0},
-            {"XRP",  "XRP",                  1.3},
-            {"ADA",  "Cardano",              0.2},
-            {"AVAX", "Avalanche",            8.8},
-            {"DOGE", "Dogecoin",             0.38},
-            {"DOT",  "Polkadot",             1.3},
-            {"MATIC","Polygon",              0.52},
-            {"LINK", "Chainlink",           8.7},
-            {"UNI",  "Uniswap",             3.4},
-            {"LTC",  "Litecoin",            53.0},
-            {"ATOM", "Cosmos",               2.2},
-            {"NEAR", "NEAR Protocol",        1.0},
+            {"BTC",   "Bitcoin",         67383.0, 0.01,    0.0001},
+            {"ETH",   "Ethereum",         1946.0, 0.01,    0.0001},
+            {"BNB",   "BNB",               614.0, 0.01,    0.001},
+            {"SOL",   "Solana",             83.0, 0.01,    0.001},
+            {"XRP",   "XRP",                 1.3, 0.0001,  0.1},
+            {"ADA",   "Cardano",             0.2, 0.0001,  0.1},
+            {"AVAX",  "Avalanche",           8.8, 0.001,   0.01},
+            {"DOGE",  "Dogecoin",           0.38, 0.00001, 1.0},
+            {"DOT",   "Polkadot",            1.3, 0.001,   0.01},
+            {"MATIC", "Polygon",            0.52, 0.0001,  0.1},
+            {"LINK",  "Chainlink",           8.7, 0.001,   0.01},
+            {"UNI",   "Uniswap",             3.4, 0.001,   0.01},
+            {"LTC",   "Litecoin",           53.0, 0.01,    0.001},
+            {"ATOM",  "Cosmos",              2.2, 0.001,   0.01},
+            {"NEAR",  "NEAR Protocol",       1.0, 0.001,   0.01},
         };
 
         for (Object[] row : data) {
             String symbol = (String) row[0];
             String name   = (String) row[1];
             double price  = (Double) row[2];
-            FinancialInstrument fi = new FinancialInstrument(symbol, name, price);
+            InstrumentSpec spec = new InstrumentSpec((Double) row[3], (Double) row[4]);
+            FinancialInstrument fi = new FinancialInstrument(symbol, name, price, spec);
             instruments.put(symbol, fi);
-            orderBooks.put(symbol, new OrderBook(symbol));
-            priceHistory1h.put(symbol, new CopyOnWriteArrayList<>());
-            priceHistory24h.put(symbol, new CopyOnWriteArrayList<>());
-            priceHistory7d.put(symbol, new CopyOnWriteArrayList<>());
+            int index = symbols.size(); // position of the symbol in every account's holdings
+            symbols.add(symbol);
+            symbolIds.put(symbol, index);
+            specs.put(symbol, spec);
+            archiver.registerInstrument(symbol, spec);
+            orderBooks.put(symbol, new OrderBook(symbol, spec));
+            fillListeners.put(symbol, new TradeHandler(symbol, spec, index));
+            priceHistory1h.put(symbol, new PriceWindow(HOUR_MS, MINUTE_MS));
+            priceHistory24h.put(symbol, new PriceWindow(24 * HOUR_MS, MINUTE_MS));
+            priceHistory7d.put(symbol, new PriceWindow(7 * 24 * HOUR_MS, 10 * MINUTE_MS));
+            candles.put(symbol, new InstrumentCandles(symbol));
         }
     }
 
-    public synchronized int registerClient() {
-        int id = accounts.size() + 1;
-        ClientAccount acc = new ClientAccount(id, INITIAL_CLIENT_BALANCE);
+    public int registerClient() {
         // Daj svim klijentima pocetne holdings za svaki instrument
-        for (String symbol : instruments.keySet()) {
+        long[] holdings = new long[symbols.size()];
+        for (int i = 0; i < holdings.length; i++) {
+            String symbol = symbols.get(i);
             double price = instruments.get(symbol).getCurrentPrice();
             // Daj kolicinu vrednosti oko 5000 USD po instrumentu
-            double qty = Math.round((5000.0 / price) * 10000.0) / 10000.0;
-            if (qty < 0.0001) qty = 0.0001;
-            acc.addHolding(symbol, qty);
+            holdings[i] = Math.max(1, specs.get(symbol).toLots(5000.0 / price));
+        }
+        int id = accounts.register(InstrumentSpec.fromCash(INITIAL_CLIENT_BALANCE), holdings);
+        // Log the first few, then only milestones, so mass registration doesn't flood the console
+        if (id <= REGISTRATION_LOG_LIMIT || id % REGISTRATION_LOG_EVERY == 0) {
+            System.out.println("[MarketEngine] Registered client #" + id + " with initial holdings");
         }
-        accounts.put(id, acc);
-        System.out.println("[MarketEngine] Registered client #" + id + " with initial holdings");
         return id;
     }
 
@@ -91,88 +126,280 @@ public class MarketEngine {
         return ob.getAsks();
     }
 
+    public MarketDepth getDepth(String symbol, int levels) {
+        OrderBook ob = orderBooks.get(symbol);
+        if (ob == null || levels <= 0) return new MarketDepth(symbol, new ArrayList<>(), new ArrayList<>());
+        return ob.getDepth(Math.min(levels, MAX_DEPTH_LEVELS));
+    }
+
+    // Read on the matching thread so a bar is never seen half-updated
+    public List<Candle> getCandles(String symbol, String resolution, LocalDateTime from, LocalDateTime to) {
+        InstrumentCandles ic = candles.get(symbol);
+        CandleResolution res = CandleResolution.fromCode(resolution);
+        if (ic == null || res == null) return new ArrayList<>();
+        long fromMs = from != null ? from.toInstant(ZoneOffset.UTC).toEpochMilli() : Long.MIN_VALUE;
+        long toMs = to != null ? to.toInstant(ZoneOffset.UTC).toEpochMilli() : Long.MAX_VALUE;
+        return shards.execute(symbol, () -> ic.getCandles(res, fromMs, toMs));
+    }
+
+    // Order commands run on the matching shard that owns the symbol; the calling RMI thread just waits
+
     public String placeBuyOrder(int clientId, String symbol, double price, double quantity) {
-        ClientAccount acc = accounts.get(clientId);
-        if (acc == null) return "ERROR: Unknown client";
-        if (!instruments.containsKey(symbol)) return "ERROR: Unknown symbol";
-        if (price <= 0 || quantity <= 0) return "ERROR: Invalid price or quantity";
-
-        double cost = price * quantity;
-        synchronized (acc) {
-            if (acc.getCashBalance() < cost) {
-                return String.format("ERROR: Insufficient funds. Need %.2f, have %.2f", cost, acc.getCashBalance());
-            }
-            acc.setCashBalance(acc.getCashBalance() - cost);
+        if (!orderBooks.containsKey(symbol)) return "ERROR: Unknown symbol";
+        return shards.execute(symbol, () -> buy(clientId, symbol, price, quantity));
+    }
+
+    public String placeSellOrder(int clientId, String symbol, double price, double quantity) {
+        if (!orderBooks.containsKey(symbol)) return "ERROR: Unknown symbol";
+        return shards.execute(symbol, () -> sell(clientId, symbol, price, quantity));
+    }
+
+    public String cancelOrder(int clientId, long orderId) {
+        RestingOrder order = orderIndex.get(orderId);
+        if (order == null) return "ERROR: Unknown order";
+        return shards.execute(order.getSymbol(), () -> cancel(clientId, orderId));
+    }
+
+    // Changes price and remaining quantity of a resting order, reserving or releasing the difference
+    public String amendOrder(int clientId, long orderId, double newPrice, double newQuantity) {
+        RestingOrder order = orderIndex.get(orderId);
+        if (order == null) return "ERROR: Unknown order";
+        return shards.execute(order.getSymbol(), () -> amend(clientId, orderId, newPrice, newQuantity));
+    }
+
+    // Binary gateway entry points: the same checks and matching as the RMI calls, but the
+    // caller doesn't wait. done runs on the shard thread with the order id (0 for a cancel)
+    // or a negative OrderProtocol reject code.
+
+    void submitOrder(int clientId, int symbolId, boolean buy, double price, double quantity, LongConsumer done) {
+        if (symbolId < 0 || symbolId >= symbols.size()) {
+            done.accept(-OrderProtocol.REJECT_UNKNOWN_SYMBOL);
+            return;
         }
+        String symbol = symbols.get(symbolId);
+        shards.submit(symbol, () -> {
+            done.accept(guarded(() -> place(clientId, symbol, buy, price, quantity)));
+            return null;
+        });
+    }
+
+    void submitCancel(int clientId, long orderId, LongConsumer done) {
+        RestingOrder order = orderIndex.get(orderId);
+        if (order == null) {
+            done.accept(-OrderProtocol.REJECT_UNKNOWN_ORDER);
+            return;
+        }
+        shards.submit(order.getSymbol(), () -> {
+            done.accept(guarded(() -> cancelResting(clientId, orderId)));
+            return null;
+        });
+    }
 
-        Order order = new Order(clientId, symbol, Order.OrderType.BUY, price, quantity);
-        orderBooks.get(symbol).addBid(order);
+    // Nobody waits on the gateway's futures, so a failure has to become a reject here
+    private static long guarded(LongSupplier command) {
+        try {
+            return command.getAsLong();
+        } catch (RuntimeException e) {
+            System.err.println("[MarketEngine] Gateway command failed: " + e);
+            return -OrderProtocol.REJECT_INTERNAL;
+        }
+    }
+
+    // Everything below runs on the symbol's shard thread, the only writer of its book
+
+    private String buy(int clientId, String symbol, double price, double quantity) {
+        return orderResult(place(clientId, symbol, true, price, quantity), clientId, symbol, true, price, quantity);
+    }
+
+    private String sell(int clientId, String symbol, double price, double quantity) {
+        return orderResult(place(clientId, symbol, false, price, quantity), clientId, symbol, false, price, quantity);
+    }
+
+    // Reserves, rests and matches a new order; returns its id or a negative OrderProtocol reject code
+    private long place(int clientId, String symbol, boolean buy, double price, double quantity) {
+        if (!accounts.exists(clientId)) return -OrderProtocol.REJECT_UNKNOWN_CLIENT;
+        InstrumentSpec spec = specs.get(symbol);
+        if (spec == null) return -OrderProtocol.REJECT_UNKNOWN_SYMBOL;
+        long ticks = spec.toTicks(price);
+        long lots = spec.toLots(quantity);
+        if (ticks <= 0 || lots <= 0) return -OrderProtocol.REJECT_INVALID_ORDER;
+        long cost = notionalOrZero(spec, ticks, lots);
+        if (cost == 0) return -OrderProtocol.REJECT_INVALID_ORDER;
+
+        if (buy) {
+            if (!accounts.reserveCash(clientId, cost)) return -OrderProtocol.REJECT_INSUFFICIENT_FUNDS;
+        } else if (!accounts.reserveHolding(clientId, accounts.symbolIndex(symbol), lots)) {
+            return -OrderProtocol.REJECT_INSUFFICIENT_HOLDINGS;
+        }
+
+        long orderId = rest(symbol, clientId, buy, ticks, lots);
         matchOrders(symbol);
-        return "OK";
+        return orderId;
     }
 
-    public String placeSellOrder(int clientId, String symbol, double price, double quantity) {
-        ClientAccount acc = accounts.get(clientId);
-        if (acc == null) return "ERROR: Unknown client";
-        if (!instruments.containsKey(symbol)) return "ERROR: Unknown symbol";
-        if (price <= 0 || quantity <= 0) return "ERROR: Invalid price or quantity";
-
-        synchronized (acc) {
-            double holding = acc.getHolding(symbol);
-            if (holding < quantity) {
-                return String.format("ERROR: Insufficient holdings. Need %.4f, have %.4f", quantity, holding);
-            }
-            acc.subtractHolding(symbol, quantity);
+    // Cash value of an order, or 0 if it is too large to be represented
+    private static long notionalOrZero(InstrumentSpec spec, long ticks, long lots) {
+        try {
+            return spec.notional(ticks, lots);
+        } catch (ArithmeticException e) {
+            return 0;
+        }
+    }
+
+    // The RMI wording of a place() result
+    private String orderResult(long result, int clientId, String symbol, boolean buy, double price, double quantity) {
+        if (result > 0) return "OK:" + result;
+        InstrumentSpec spec = specs.get(symbol);
+        if (result == -OrderProtocol.REJECT_INSUFFICIENT_FUNDS) {
+            long cost = spec.notional(spec.toTicks(price), spec.toLots(quantity));
+            return String.format("ERROR: Insufficient funds. Need %.2f, have %.2f",
+                    InstrumentSpec.toCash(cost), InstrumentSpec.toCash(accounts.getCash(clientId)));
+        }
+        if (result == -OrderProtocol.REJECT_INSUFFICIENT_HOLDINGS) {
+            int index = accounts.symbolIndex(symbol);
+            return String.format("ERROR: Insufficient holdings. Need %.4f, have %.4f",
+                    spec.toQuantity(spec.toLots(quantity)), spec.toQuantity(accounts.getHolding(clientId, index)));
+        }
+        return "ERROR: " + OrderProtocol.rejectText((int) -result);
+    }
+
+    private String cancel(int clientId, long orderId) {
+        int result = cancelResting(clientId, orderId);
+        return result == 0 ? "OK" : "ERROR: " + OrderProtocol.rejectText(-result);
+    }
+
+    // Returns 0 or a negative OrderProtocol reject code
+    private int cancelResting(int clientId, long orderId) {
+        RestingOrder order = orderIndex.get(orderId);
+        if (order == null) return -OrderProtocol.REJECT_UNKNOWN_ORDER;
+        if (!accounts.exists(clientId)) return -OrderProtocol.REJECT_UNKNOWN_CLIENT;
+        OrderBook book = orderBooks.get(order.getSymbol());
+
+        if (!book.isLive(order, orderId)) return -OrderProtocol.REJECT_ORDER_CLOSED;
+        if (order.getClientId() != clientId) return -OrderProtocol.REJECT_NOT_YOUR_ORDER;
+        Order cancelled = book.cancel(order, orderId);
+        orderIndex.remove(orderId);
+        publishChanges(fillListeners.get(cancelled.getSymbol()));
+
+        // Release what was reserved for the unfilled part
+        InstrumentSpec spec = cancelled.getSpec();
+        if (cancelled.getType() == Order.OrderType.BUY) {
+            accounts.addCash(clientId, spec.notional(cancelled.getPriceTicks(), cancelled.getRemainingLots()));
+        } else {
+            accounts.addHolding(clientId, accounts.symbolIndex(cancelled.getSymbol()), cancelled.getRemainingLots());
         }
+        return 0;
+    }
 
-        Order order = new Order(clientId, symbol, Order.OrderType.SELL, price, quantity);
-        orderBooks.get(symbol).addAsk(order);
+    private String amend(int clientId, long orderId, double newPrice, double newQuantity) {
+        RestingOrder order = orderIndex.get(orderId);
+        if (order == null) return "ERROR: Unknown order";
+        if (!accounts.exists(clientId)) return "ERROR: Unknown client";
+        String symbol = order.getSymbol();
+        InstrumentSpec spec = specs.get(symbol);
+        long ticks = spec.toTicks(newPrice);
+        long lots = spec.toLots(newQuantity);
+        if (ticks <= 0 || lots <= 0 || notionalOrZero(spec, ticks, lots) == 0) return "ERROR: Invalid price or quantity";
+        OrderBook book = orderBooks.get(symbol);
+
+        if (!book.isLive(order, orderId)) return "ERROR: Order already filled or cancelled";
+        if (order.getClientId() != clientId) return "ERROR: Not your order";
+        if (order.isBuy()) {
+            long extra = spec.notional(ticks, lots) - spec.notional(order.getPriceTicks(), order.getRemainingLots());
+            if (extra <= 0) {
+                accounts.addCash(clientId, -extra);
+            } else if (!accounts.reserveCash(clientId, extra)) {
+                return String.format("ERROR: Insufficient funds. Need %.2f more, have %.2f",
+                        InstrumentSpec.toCash(extra), InstrumentSpec.toCash(accounts.getCash(clientId)));
+            }
+        } else {
+            int index = accounts.symbolIndex(symbol);
+            long extra = lots - order.getRemainingLots();
+            if (extra <= 0) {
+                accounts.addHolding(clientId, index, -extra);
+            } else if (!accounts.reserveHolding(clientId, index, extra)) {
+                return String.format("ERROR: Insufficient holdings. Need %.4f more, have %.4f",
+                        spec.toQuantity(extra), spec.toQuantity(accounts.getHolding(clientId, index)));
+            }
+        }
+        book.amend(order, ticks, lots);
         matchOrders(symbol);
         return "OK";
     }
 
+    private long rest(String symbol, int clientId, boolean buy, long ticks, long lots) {
+        OrderBook book = orderBooks.get(symbol);
+        RestingOrder order = buy ? book.addBid(clientId, ticks, lots) : book.addAsk(clientId, ticks, lots);
+        orderIndex.put(order.getId(), order);
+        return order.getId();
+    }
+
     private void matchOrders(String symbol) {
-        OrderBook ob = orderBooks.get(symbol);
-        List<double[]> matches = ob.matchOrders();
-
-        for (double[] m : matches) {
-            int buyerClientId  = (int) m[0];
-            int sellerClientId = (int) m[1];
-            double matchPrice  = m[2];
-            double matchQty    = m[3];
-
-            // Update buyer account
-            ClientAccount buyer = accounts.get(buyerClientId);
-            if (buyer != null) {
-                synchronized (buyer) {
-                    buyer.addHolding(symbol, matchQty);
-                }
-            }
+        TradeHandler handler = fillListeners.get(symbol);
+        orderBooks.get(symbol).matchOrders(handler);
+        publishChanges(handler);
+    }
 
-            ClientAccount seller = accounts.get(sellerClientId);
-            if (seller != null) {
-                synchronized (seller) {
-                    seller.setCashBalance(seller.getCashBalance() + matchPrice * matchQty);
-                }
-            }
+    // Trades and book changes of one command go out on the feed as one batch.
+    // Depth changes of a book nobody watches are dropped.
+    private void publishChanges(TradeHandler handler) {
+        OrderBook book = orderBooks.get(handler.symbol);
+        book.drainDepthChanges(feed.hasDepthSubscribers(handler.symbolIndex) ? handler.depthBatch : null);
+        if (!handler.feedBatch.isEmpty() || !handler.depthBatch.isEmpty()) {
+            // The publisher keeps the lists, so the handler starts fresh ones
+            feed.publish(handler.feedBatch, handler.depthBatch);
+            handler.feedBatch = new ArrayList<>();
+            handler.depthBatch = new ArrayList<>();
+        }
+    }
+
+    // Settles fills of one symbol; created once per instrument so matching doesn't allocate listeners
+    private class TradeHandler implements FillListener {
+        private final String symbol;
+        private final InstrumentSpec spec;
+        private final int symbolIndex;
+        // Feed updates of the current matching run; only the symbol's shard thread touches it
+        private List<MarketUpdate> feedBatch = new ArrayList<>();
+        private List<DepthUpdate> depthBatch = new ArrayList<>();
+
+        TradeHandler(String symbol, InstrumentSpec spec, int symbolIndex) {
+            this.symbol = symbol;
+            this.spec = spec;
+            this.symbolIndex = symbolIndex;
+        }
+
+        @Override
+        public void onFill(RestingOrder bid, RestingOrder ask, long matchTicks, long matchLots) {
+            int buyerClientId = bid.getClientId();
+            int sellerClientId = ask.getClientId();
+            long bidTicks = bid.getPriceTicks();
+            // Filled orders go back to the book's pool right after this call
+            if (bid.getRemainingLots() == 0) orderIndex.remove(bid.getId());
+            if (ask.getRemainingLots() == 0) orderIndex.remove(ask.getId());
+
+            // Update buyer account; cash was reserved at the bid price, refund the price improvement
+            accounts.addHolding(buyerClientId, symbolIndex, matchLots);
+            accounts.addCash(buyerClientId, spec.notional(bidTicks - matchTicks, matchLots));
+            accounts.addCash(sellerClientId, spec.notional(matchTicks, matchLots));
+
+            double matchPrice = spec.toPrice(matchTicks);
 
             // Update instrument price
             FinancialInstrument fi = instruments.get(symbol);
             if (fi != null) {
                 double oldPrice = fi.getCurrentPrice();
                 fi.setCurrentPrice(matchPrice);
-                fi.setLastUpdated(LocalDateTime.now());
+                fi.setLastUpdatedMillis(System.currentTimeMillis());
                 updatePriceHistory(symbol, oldPrice, matchPrice);
+                updateCandles(fi, matchPrice, spec.toQuantity(matchLots), feedBatch);
             }
 
-            Trade trade = new Trade(symbol, matchPrice, matchQty, buyerClientId, sellerClientId,
+            Trade trade = new Trade(symbol, spec, matchTicks, matchLots, buyerClientId, sellerClientId,
                     clock.getSimulationTime());
             archiver.archive(trade);
 
-            broadcastUpdate(symbol, matchPrice, MarketUpdate.UpdateType.TRADE_EXECUTED);
-
-            System.out.printf("[MarketEngine] TRADE %s: %.4f @ %.2f (buyer=%d, seller=%d)%n",
-                    symbol, matchQty, matchPrice, buyerClientId, sellerClientId);
+            // The archiver thread also logs the trade, keeping console output off the book lock
+            feedBatch.add(priceUpdate(symbol, matchPrice, MarketUpdate.UpdateType.TRADE_EXECUTED));
         }
     }
 
@@ -180,78 +407,160 @@ public class MarketEngine {
         FinancialInstrument fi = instruments.get(symbol);
         if (fi == null) return;
 
-        List<Double> hist1h  = priceHistory1h.get(symbol);
-        List<Double> hist24h = priceHistory24h.get(symbol);
-        List<Double> hist7d  = priceHistory7d.get(symbol);
-
-        hist1h.add(oldPrice);
-        hist24h.add(oldPrice);
-        hist7d.add(oldPrice);
+        PriceWindow hist1h  = priceHistory1h.get(symbol);
+        PriceWindow hist24h = priceHistory24h.get(symbol);
+        PriceWindow hist7d  = priceHistory7d.get(symbol);
 
-        // Limit history size
-        if (hist1h.size() > 60)   hist1h.remove(0);
-        if (hist24h.size() > 1440) hist24h.remove(0);
-        if (hist7d.size() > 10080) hist7d.remove(0);
+        // Windows are simulated durations, so 1h means one simulated hour however busy the symbol is
+        long now = clock.getSimulationMillis();
+        hist1h.add(now, oldPrice);
+        hist24h.add(now, oldPrice);
+        hist7d.add(now, oldPrice);
 
         // Update change percentages
-        if (!hist1h.isEmpty()) {
-            double ref1h = hist1h.get(0);
-            fi.setChange1h(ref1h != 0 ? ((newPrice - ref1h) / ref1h) * 100 : 0);
-        }
-        if (!hist24h.isEmpty()) {
-            double ref24h = hist24h.get(0);
-            fi.setChange24h(ref24h != 0 ? ((newPrice - ref24h) / ref24h) * 100 : 0);
-        }
-        if (!hist7d.isEmpty()) {
-            double ref7d = hist7d.get(0);
-            fi.setChange7d(ref7d != 0 ? ((newPrice - ref7d) / ref7d) * 100 : 0);
+        fi.setChange1h(hist1h.changePercent(newPrice));
+        fi.setChange24h(hist24h.changePercent(newPrice));
+        fi.setChange7d(hist7d.changePercent(newPrice));
+    }
+
+    // Feeds the candle engine and adds every bar the update closed to the feed batch
+    private void updateCandles(FinancialInstrument fi, double price, double quantity, List<MarketUpdate> batch) {
+        InstrumentCandles ic = candles.get(fi.getSymbol());
+        List<Candle> closed = ic.update(clock.getSimulationMillis(), price, quantity);
+        fi.setStats24h(ic.getHigh24h(), ic.getLow24h(), ic.getVolume24h(), ic.getVwap24h());
+        for (Candle candle : closed) {
+            batch.add(new MarketUpdate(candle, clock.getSimulationTimeString(), 0));
         }
     }
 
-    public void broadcastUpdate(String symbol, double price, MarketUpdate.UpdateType type) {
+    // The feed publisher stamps the sequence when the update goes out
+    private MarketUpdate priceUpdate(String symbol, double price, MarketUpdate.UpdateType type) {
         FinancialInstrument fi = instruments.get(symbol);
         double change = fi != null ? fi.getChangeFromOpen() : 0;
-        MarketUpdate update = new MarketUpdate(type, symbol, price, change, clock.getSimulationTimeString());
-
-        for (TcpClientHandler handler : tcpClients) {
-            handler.sendUpdate(update, symbol);
-        }
+        return new MarketUpdate(type, symbol, price, change, clock.getSimulationTimeString(),
+                0, clock.getSimulationMillis());
     }
 
+    // Each instrument moves on its own shard, so prices are only ever written by that thread.
+    // The whole tick is then published as one batch.
     public void simulatePriceMovements() {
-        Random rnd = new Random();
+        List<Future<List<MarketUpdate>>> moves = new ArrayList<>();
         for (FinancialInstrument fi : instruments.values()) {
             // Small random walk: -1% to +1%
-            double changePct = (rnd.nextGaussian() * 0.3) / 100.0;
-            double newPrice = fi.getCurrentPrice() * (1 + changePct);
-            if (newPrice < 0.0001) newPrice = 0.0001;
+            double changePct = (ThreadLocalRandom.current().nextGaussian() * 0.3) / 100.0;
+            moves.add(shards.submit(fi.getSymbol(), () -> movePrice(fi, changePct)));
+        }
+        List<MarketUpdate> tick = new ArrayList<>();
+        for (Future<List<MarketUpdate>> move : moves) tick.addAll(MatchingIntake.await(move));
+        feed.publish(tick);
+    }
 
-            double oldPrice = fi.getCurrentPrice();
-            fi.setCurrentPrice(newPrice);
-            fi.setLastUpdated(LocalDateTime.now());
-            updatePriceHistory(fi.getSymbol(), oldPrice, newPrice);
+    private List<MarketUpdate> movePrice(FinancialInstrument fi, double changePct) {
+        InstrumentSpec spec = specs.get(fi.getSymbol());
+        long newTicks = Math.max(1, spec.toTicks(fi.getCurrentPrice() * (1 + changePct)));
+        double newPrice = spec.toPrice(newTicks);
+
+        double oldPrice = fi.getCurrentPrice();
+        fi.setCurrentPrice(newPrice);
+        fi.setLastUpdatedMillis(System.currentTimeMillis());
+        updatePriceHistory(fi.getSymbol(), oldPrice, newPrice);
+        List<MarketUpdate> updates = new ArrayList<>(2);
+        updateCandles(fi, newPrice, 0, updates);
+        updates.add(priceUpdate(fi.getSymbol(), newPrice, MarketUpdate.UpdateType.PRICE_UPDATE));
+        return updates;
+    }
 
-            broadcastUpdate(fi.getSymbol(), newPrice, MarketUpdate.UpdateType.PRICE_UPDATE);
-        }
+    public void shutdown() {
+        shards.shutdown();
+        feed.shutdown();
     }
 
+    // A new connection gets every symbol until it sends a subscription
     public void registerTcpClient(TcpClientHandler handler) {
-        tcpClients.add(handler);
+        feed.getSubscriptions().register(handler);
     }
 
     public void unregisterTcpClient(TcpClientHandler handler) {
-        tcpClients.remove(handler);
+        feed.getSubscriptions().unregister(handler);
+        for (int id = 0; id < symbols.size(); id++) feed.unsubscribeDepth(handler, id);
     }
 
+    boolean clientExists(int clientId) {
+        return accounts.exists(clientId);
+    }
+
+    // Catches a reconnected client up from the last sequence it saw
+    void resumeFeed(TcpClientHandler handler, long lastSequence) {
+        feed.resume(handler, lastSequence);
+    }
+
+    // Depth of each book is snapshotted and then streamed as deltas; unknown symbols are ignored.
+    // The snapshot is taken on the book's shard so it falls between two of its batches.
+    void subscribeDepth(TcpClientHandler handler, List<String> names) {
+        for (String name : names) {
+            Integer id = symbolIds.get(name);
+            if (id == null) continue;
+            OrderBook book = orderBooks.get(name);
+            shards.submit(name, () -> {
+                feed.subscribeDepth(handler, id, book.depthSnapshot());
+                return null;
+            });
+        }
+    }
+
+    void unsubscribeDepth(TcpClientHandler handler, List<String> names) {
+        for (String name : names) {
+            Integer id = symbolIds.get(name);
+            if (id != null) feed.unsubscribeDepth(handler, id);
+        }
+    }
+
+    SubscriptionIndex getFeedSubscriptions() {
+        return feed.getSubscriptions();
+    }
+
+    FeedPublisher getFeed() {
+        return feed;
+    }
+
+    // Decimal copy of the account for the RMI edge. Fields are read one by one, so a copy taken
+    // mid-trade can show the bought lots before the price-improvement refund, never more cash than owned.
     public ClientAccount getClientAccount(int clientId) {
-        return accounts.get(clientId);
+        if (!accounts.exists(clientId)) return null;
+        Map<String, Double> holdings = new LinkedHashMap<>();
+        for (int i = 0; i < accounts.symbolCount(); i++) {
+            long lots = accounts.getHolding(clientId, i);
+            if (lots != 0) {
+                String symbol = accounts.symbolAt(i);
+                holdings.put(symbol, specs.get(symbol).toQuantity(lots));
+            }
+        }
+        return new ClientAccount(clientId, InstrumentSpec.toCash(accounts.getCash(clientId)), holdings);
     }
 
     public Map<String, FinancialInstrument> getInstruments() {
         return instruments;
     }
 
+    public List<String> getSymbols() {
+        return Collections.unmodifiableList(symbols);
+    }
+
+    // Id of the symbol on the binary feed, -1 if unknown
+    public int getSymbolId(String symbol) {
+        Integer id = symbolIds.get(symbol);
+        return id != null ? id : -1;
+    }
+
+    public InstrumentSpec getSpec(String symbol) {
+        return specs.get(symbol);
+    }
+
     public List<Trade> getTradesForDay(String symbol, String day) {
         return archiver.getTradesForDay(symbol, day);
     }
+
+    public TradePage getTrades(String symbol, LocalDateTime from, LocalDateTime to, int limit, String cursor) {
+        return archiver.getTrades(symbol, from, to, limit, cursor);
+    }
 }
@@ -0,0 +1,49 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * How order commands get from the calling threads to the single-writer matching
+ * thread that owns a symbol. MatchingShards hands them over through executors,
+ * RingBufferIntake through preallocated ring buffers.
+ */
+public interface MatchingIntake {
+
+    <T> Future<T> submit(String symbol, Callable<T> command);
+
+    // Runs the command on the symbol's matching thread and waits for its result
+    default <T> T execute(String symbol, Callable<T> command) {
+        return await(submit(symbol, command));
+    }
+
+    void shutdown();
+
+    static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for matching thread", e);
+        }
+    }
+
+    // Round-robin so busy symbols at the top of the list land on different shards
+    static Map<String, Integer> assignShards(Collection<String> symbols, int shardCount) {
+        Map<String, Integer> shardOfSymbol = new HashMap<>();
+        int i = 0;
+        for (String symbol : symbols) {
+            shardOfSymbol.put(symbol, i++ % shardCount);
+        }
+        return shardOfSymbol;
+    }
+
+    static int shardCount(int requested, Collection<String> symbols) {
+        return Math.max(1, Math.min(requested, symbols.size()));
+    }
+}
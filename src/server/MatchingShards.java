@@ -0,0 +1,42 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Partitions instruments over a fixed set of single-threaded matching shards.
+ * Every command for a symbol runs on the one thread that owns it, so books are
+ * single-writer and different symbols match in parallel on separate cores.
+ * Callers (RMI threads) only submit commands and wait for the result.
+ */
+public class MatchingShards implements MatchingIntake {
+
+    private final ExecutorService[] shards;
+    private final Map<String, Integer> shardOfSymbol;
+
+    public MatchingShards(int shardCount, Collection<String> symbols) {
+        int count = MatchingIntake.shardCount(shardCount, symbols);
+        shards = new ExecutorService[count];
+        for (int i = 0; i < count; i++) {
+            String name = "Matching-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        shardOfSymbol = MatchingIntake.assignShards(symbols, count);
+    }
+
+    public int getShardCount() { return shards.length; }
+
+    @Override
+    public <T> Future<T> submit(String symbol, Callable<T> command) {
+        return shards[shardOfSymbol.get(symbol)].submit(command);
+    }
+
+    @Override
+    public void shutdown() {
+        for (ExecutorService shard : shards) shard.shutdown();
+    }
+}
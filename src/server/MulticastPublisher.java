@@ -0,0 +1,110 @@
+package server;
+
+import common.FeedProtocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+
+/**
+ * Sends the whole feed to one UDP multicast group, so the server's egress is the same
+ * however many consumers listen. Each datagram holds a run of consecutive sequences;
+ * receivers spot gaps from the packet header and fetch them from the RecoveryServer.
+ * A heartbeat announces the next sequence when the feed is quiet, so a lost last packet
+ * is noticed too.
+ */
+public class MulticastPublisher {
+
+    // Stays under a typical Ethernet MTU so datagrams are never fragmented
+    private static final int MAX_PACKET_SIZE = 1400;
+
+    private final DatagramChannel channel;
+    private final InetSocketAddress group;
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+    private long nextSequence = 1;
+    private long packetsSent;
+    private boolean sentSinceHeartbeat;
+
+    // networkInterface may be null to let the routing table pick one
+    public MulticastPublisher(String groupAddress, int port, int ttl, NetworkInterface networkInterface) throws IOException {
+        this.group = new InetSocketAddress(InetAddress.getByName(groupAddress), port);
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        if (networkInterface != null) channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        System.out.println("[MulticastPublisher] Publishing to " + groupAddress + ":" + port);
+    }
+
+    synchronized void start(long firstSequence) {
+        nextSequence = firstSequence;
+    }
+
+    // Called by the FeedPublisher with each stamped batch, in sequence order
+    synchronized void send(List<FeedMessage> batch) {
+        int from = 0;
+        while (from < batch.size()) {
+            int to = packetEnd(batch, from);
+            List<FeedMessage> records = batch.subList(from, to);
+            byte[] frames = FeedPublisher.encodeFrames(records);
+            packet.clear();
+            FeedProtocol.putPacketHeader(packet, records.get(0).getUpdate().getSequence(), records.size());
+            packet.put(frames);
+            transmit();
+            from = to;
+        }
+        nextSequence = batch.get(batch.size() - 1).getUpdate().getSequence() + 1;
+        sentSinceHeartbeat = true;
+    }
+
+    // Run once a second; only speaks when nothing else went out since the last call
+    public synchronized void heartbeat() {
+        if (sentSinceHeartbeat) {
+            sentSinceHeartbeat = false;
+            return;
+        }
+        packet.clear();
+        FeedProtocol.putPacketHeader(packet, nextSequence, 0);
+        transmit();
+    }
+
+    public synchronized long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public void close() {
+        try { channel.close(); } catch (IOException ignored) {}
+    }
+
+    // Index after the last message that still fits in one datagram
+    private static int packetEnd(List<FeedMessage> batch, int from) {
+        int size = FeedProtocol.PACKET_HEADER_SIZE;
+        byte type = -1;
+        int i = from;
+        while (i < batch.size()) {
+            byte t = batch.get(i).frameType();
+            int add = FeedProtocol.recordSize(t) + (t != type ? FeedProtocol.HEADER_SIZE : 0);
+            if (size + add > MAX_PACKET_SIZE) break;
+            size += add;
+            type = t;
+            i++;
+        }
+        return i;
+    }
+
+    private void transmit() {
+        packet.flip();
+        try {
+            channel.send(packet, group);
+            packetsSent++;
+        } catch (IOException e) {
+            // Receivers recover whatever is lost here
+            System.err.println("[MulticastPublisher] Send failed: " + e.getMessage());
+        }
+    }
+}
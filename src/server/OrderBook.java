@@ -1,76 +1,247 @@
 package server;
 
+import common.DepthLevel;
+import common.DepthUpdate;
+import common.InstrumentSpec;
+import common.MarketDepth;
 import common.Order;
 
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 public class OrderBook {
 
+    private static final int POOL_SIZE = 1024;
+
     private final String symbol;
+    private final InstrumentSpec spec;
     // Bids sorted descending by price
-    private final List<Order> bids = new CopyOnWriteArrayList<>();
+    private final TreeMap<Long, PriceLevel> bids = new TreeMap<>(Comparator.reverseOrder());
     // Asks sorted ascending by price
-    private final List<Order> asks = new CopyOnWriteArrayList<>();
-
-    public OrderBook(String symbol) {
+    private final TreeMap<Long, PriceLevel> asks = new TreeMap<>();
+    // Direct lookup of existing levels, so adding to a known price skips the tree
+    private final Map<Long, PriceLevel> bidLevels = new HashMap<>();
+    private final Map<Long, PriceLevel> askLevels = new HashMap<>();
+    private PriceLevel bestBid;
+    private PriceLevel bestAsk;
+    private final OrderPool pool = new OrderPool(POOL_SIZE);
+    // Levels changed since the last drain, in the order they first changed, for the depth feed
+    private final List<PriceLevel> changedBids = new ArrayList<>();
+    private final List<PriceLevel> changedAsks = new ArrayList<>();
+    private long depthSequence;
+
+    public OrderBook(String symbol, InstrumentSpec spec) {
         this.symbol = symbol;
+        this.spec = spec;
     }
 
     public String getSymbol() { return symbol; }
 
-    public synchronized void addBid(Order order) {
-        bids.add(order);
-        bids.sort((a, b) -> Double.compare(b.getPrice(), a.getPrice()));
+    // Returns the live order so the caller can index it; it stays valid until filled or cancelled
+    synchronized RestingOrder addBid(int clientId, long priceTicks, long lots) {
+        RestingOrder order = pool.acquire();
+        order.init(Order.nextId(), clientId, symbol, true, priceTicks, lots, System.currentTimeMillis());
+        rest(order);
+        return order;
+    }
+
+    synchronized RestingOrder addAsk(int clientId, long priceTicks, long lots) {
+        RestingOrder order = pool.acquire();
+        order.init(Order.nextId(), clientId, symbol, false, priceTicks, lots, System.currentTimeMillis());
+        rest(order);
+        return order;
+    }
+
+    // True if the order is still resting here under the given id (pooled objects get reused)
+    synchronized boolean isLive(RestingOrder order, long orderId) {
+        return order.isResting() && order.getId() == orderId;
+    }
+
+    // Removes a resting order and returns its final state, or null if it is no longer in the book
+    synchronized Order cancel(RestingOrder order, long orderId) {
+        if (!isLive(order, orderId)) return null;
+        Order snapshot = order.toOrder(spec);
+        unrest(order);
+        pool.release(order);
+        return snapshot;
+    }
+
+    // Moves a live order to a new price and remaining quantity. A pure size reduction at the
+    // same price keeps its queue position, anything else goes to the back of the new level.
+    synchronized void amend(RestingOrder order, long priceTicks, long remainingLots) {
+        if (priceTicks == order.getPriceTicks() && remainingLots <= order.getRemainingLots()) {
+            order.level.fill(order, order.getRemainingLots() - remainingLots);
+            changed(order.level, order.isBuy());
+            return;
+        }
+        unrest(order);
+        order.amend(priceTicks, remainingLots, System.currentTimeMillis());
+        rest(order);
+    }
+
+    public synchronized Order getBestBid() {
+        return bestBid != null ? bestBid.peek().toOrder(spec) : null;
+    }
+
+    public synchronized Order getBestAsk() {
+        return bestAsk != null ? bestAsk.peek().toOrder(spec) : null;
+    }
+
+    // Aggregated top levels of each side; costs O(levels) however many orders rest in the book
+    public synchronized MarketDepth getDepth(int levels) {
+        return new MarketDepth(symbol, topLevels(bids, levels), topLevels(asks, levels));
     }
 
-    public synchronized void addAsk(Order order) {
-        asks.add(order);
-        asks.sort(Comparator.comparingDouble(Order::getPrice));
+    // Every level of the book as a depth snapshot, current as of the returned book sequence.
+    // Changes not drained yet are in it too; their deltas come later and change nothing.
+    synchronized List<DepthUpdate> depthSnapshot() {
+        List<DepthUpdate> result = new ArrayList<>(bids.size() + asks.size() + 1);
+        result.add(new DepthUpdate(symbol, DepthUpdate.Kind.SNAPSHOT_START, true, 0, 0, 0, depthSequence));
+        for (PriceLevel level : bids.values()) result.add(depthUpdate(level, true, DepthUpdate.Kind.SNAPSHOT_LEVEL, depthSequence));
+        for (PriceLevel level : asks.values()) result.add(depthUpdate(level, false, DepthUpdate.Kind.SNAPSHOT_LEVEL, depthSequence));
+        return result;
+    }
+
+    // Hands the new aggregate of every level changed since the last call to out, each with the
+    // next book sequence. With out null the changes are dropped without using up sequences,
+    // which is what the engine does while nobody watches the book.
+    synchronized void drainDepthChanges(List<DepthUpdate> out) {
+        drain(changedBids, true, out);
+        drain(changedAsks, false, out);
     }
 
     public synchronized List<Order> getBids() {
-        return new ArrayList<>(bids);
+        List<Order> result = new ArrayList<>();
+        for (PriceLevel level : bids.values()) level.copyTo(result, spec);
+        return result;
     }
 
     public synchronized List<Order> getAsks() {
-        return new ArrayList<>(asks);
+        List<Order> result = new ArrayList<>();
+        for (PriceLevel level : asks.values()) level.copyTo(result, spec);
+        return result;
     }
 
 
-    public synchronized List<double[]> matchOrders() {
-        List<double[]> matches = new ArrayList<>();
+    // Reports each fill to the listener; allocates nothing, filled orders go back to the pool
+    synchronized void matchOrders(FillListener listener) {
+        while (bestBid != null && bestAsk != null) {
+            RestingOrder bid = bestBid.peek();
+            RestingOrder ask = bestAsk.peek();
+
+            if (bid.getPriceTicks() < ask.getPriceTicks()) break;
 
-        while (!bids.isEmpty() && !asks.isEmpty()) {
-            Order bestBid = bids.get(0);
-            Order bestAsk = asks.get(0);
+            long matchPrice = ask.getPriceTicks(); // ask price is execution price
+            long matchQty = Math.min(bid.getRemainingLots(), ask.getRemainingLots());
 
-            if (bestBid.getPrice() >= bestAsk.getPrice()) {
-                double matchPrice = bestAsk.getPrice(); // ask price is execution price
-                double matchQty = Math.min(bestBid.getRemainingQuantity(), bestAsk.getRemainingQuantity());
+            bestBid.fill(bid, matchQty);
+            bestAsk.fill(ask, matchQty);
+            changed(bestBid, true);
+            changed(bestAsk, false);
+            listener.onFill(bid, ask, matchPrice, matchQty);
+
+            if (bid.getRemainingLots() == 0) {
+                unrest(bid);
+                pool.release(bid);
+            }
+            if (ask.getRemainingLots() == 0) {
+                unrest(ask);
+                pool.release(ask);
+            }
+        }
+    }
 
-                matches.add(new double[]{
-                    bestBid.getClientId(),
-                    bestAsk.getClientId(),
-                    matchPrice,
-                    matchQty
-                });
+    public synchronized void removeFilledOrders() {
+        removeFilled(bids, bidLevels, true);
+        removeFilled(asks, askLevels, false);
+        bestBid = bids.isEmpty() ? null : bids.get(bids.firstKey());
+        bestAsk = asks.isEmpty() ? null : asks.get(asks.firstKey());
+    }
 
-                bestBid.setRemainingQuantity(bestBid.getRemainingQuantity() - matchQty);
-                bestAsk.setRemainingQuantity(bestAsk.getRemainingQuantity() - matchQty);
+    private List<DepthLevel> topLevels(TreeMap<Long, PriceLevel> side, int levels) {
+        List<DepthLevel> result = new ArrayList<>(Math.min(levels, side.size()));
+        for (PriceLevel level : side.values()) {
+            if (result.size() >= levels) break;
+            result.add(level.toDepthLevel(spec));
+        }
+        return result;
+    }
 
-                if (bestBid.getRemainingQuantity() < 0.000001) bids.remove(0);
-                if (!asks.isEmpty() && bestAsk.getRemainingQuantity() < 0.000001) asks.remove(0);
-            } else {
-                break;
+    private void rest(RestingOrder order) {
+        long priceTicks = order.getPriceTicks();
+        if (order.isBuy()) {
+            PriceLevel level = bidLevels.get(priceTicks);
+            if (level == null) {
+                level = new PriceLevel(priceTicks);
+                bidLevels.put(level.getKey(), level);
+                bids.put(level.getKey(), level);
+                if (bestBid == null || priceTicks > bestBid.getPriceTicks()) bestBid = level;
+            }
+            level.add(order);
+            changed(level, true);
+        } else {
+            PriceLevel level = askLevels.get(priceTicks);
+            if (level == null) {
+                level = new PriceLevel(priceTicks);
+                askLevels.put(level.getKey(), level);
+                asks.put(level.getKey(), level);
+                if (bestAsk == null || priceTicks < bestAsk.getPriceTicks()) bestAsk = level;
             }
+            level.add(order);
+            changed(level, false);
         }
+    }
 
-        return matches;
+    // Unlinks an order from its level, dropping the level once it is empty
+    private void unrest(RestingOrder order) {
+        PriceLevel level = order.level;
+        level.remove(order);
+        changed(level, order.isBuy());
+        if (!level.isEmpty()) return;
+        if (order.isBuy()) {
+            PriceLevel best = removeLevel(bids, bidLevels, level);
+            if (level == bestBid) bestBid = best;
+        } else {
+            PriceLevel best = removeLevel(asks, askLevels, level);
+            if (level == bestAsk) bestAsk = best;
+        }
     }
 
-    public synchronized void removeFilledOrders() {
-        bids.removeIf(o -> o.getRemainingQuantity() < 0.000001);
-        asks.removeIf(o -> o.getRemainingQuantity() < 0.000001);
+    // Drops an empty level and returns the new best level of that side
+    private static PriceLevel removeLevel(TreeMap<Long, PriceLevel> side, Map<Long, PriceLevel> index, PriceLevel level) {
+        side.remove(level.getKey());
+        index.remove(level.getKey());
+        return side.isEmpty() ? null : side.get(side.firstKey());
+    }
+
+    private void changed(PriceLevel level, boolean bid) {
+        if (level.depthChanged) return;
+        level.depthChanged = true;
+        (bid ? changedBids : changedAsks).add(level);
+    }
+
+    private void drain(List<PriceLevel> changed, boolean bid, List<DepthUpdate> out) {
+        for (PriceLevel level : changed) {
+            level.depthChanged = false;
+            // An emptied level is reported with quantity 0
+            if (out != null) out.add(depthUpdate(level, bid, DepthUpdate.Kind.DELTA, ++depthSequence));
+        }
+        changed.clear();
+    }
+
+    private DepthUpdate depthUpdate(PriceLevel level, boolean bid, DepthUpdate.Kind kind, long sequence) {
+        return new DepthUpdate(symbol, kind, bid, spec.toPrice(level.getPriceTicks()),
+                spec.toQuantity(level.getTotalLots()), level.getOrderCount(), sequence);
+    }
+
+    private void removeFilled(TreeMap<Long, PriceLevel> side, Map<Long, PriceLevel> index, boolean bid) {
+        Iterator<PriceLevel> it = side.values().iterator();
+        while (it.hasNext()) {
+            PriceLevel level = it.next();
+            if (level.removeFilled(pool)) changed(level, bid);
+            if (level.isEmpty()) {
+                it.remove();
+                index.remove(level.getKey());
+            }
+        }
     }
 }
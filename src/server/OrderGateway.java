@@ -0,0 +1,46 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+// Accepts binary order-entry connections; each gets an OrderGatewaySession
+public class OrderGateway implements Runnable {
+
+    private final int port;
+    private final MarketEngine engine;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+
+    public OrderGateway(int port, MarketEngine engine) {
+        this.port = port;
+        this.engine = engine;
+    }
+
+    @Override
+    public void run() {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("[OrderGateway] Listening on port " + port);
+            while (running) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    channel.socket().setTcpNoDelay(true);
+                    System.out.println("[OrderGateway] New order connection: " + channel.getRemoteAddress());
+                    new OrderGatewaySession(channel, engine).start();
+                } catch (IOException e) {
+                    if (running) System.err.println("[OrderGateway] Accept error: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[OrderGateway] Could not start: " + e.getMessage());
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try { if (serverChannel != null) serverChannel.close(); } catch (IOException ignored) {}
+    }
+}
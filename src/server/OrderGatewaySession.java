@@ -0,0 +1,223 @@
+package server;
+
+import common.FeedProtocol;
+import common.OrderProtocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * One order-entry connection. The reader thread parses every message that arrived and
+ * hands each order to its matching shard without waiting, so a client can keep many
+ * orders in flight. The shards append acks and rejects to the outbound buffer, and the
+ * writer thread sends whatever has collected in one write.
+ *
+ * At most MAX_IN_FLIGHT messages wait for their reply; past that the reader stops reading
+ * until the shards catch up, and TCP flow control holds the client back, so one client
+ * cannot fill the shard queues.
+ */
+class OrderGatewaySession {
+
+    private static final int READ_BUFFER = 64 * 1024;
+    private static final int INITIAL_OUTBOUND = 16 * 1024;
+    // A client that stops reading its acks is dropped past this
+    private static final int MAX_OUTBOUND = 4 * 1024 * 1024;
+    private static final int MAX_IN_FLIGHT = 4096;
+
+    private final SocketChannel channel;
+    private final MarketEngine engine;
+    private int clientId = -1;
+
+    // Filled by the shards, drained by the writer thread; guarded by this
+    private ByteBuffer outbound = ByteBuffer.allocate(INITIAL_OUTBOUND);
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_OUTBOUND);
+    private boolean writerWaiting;
+    // Messages read whose reply is not queued yet; every message gets exactly one reply
+    private int inFlight;
+    private boolean readerWaiting;
+    private volatile boolean open = true;
+
+    OrderGatewaySession(SocketChannel channel, MarketEngine engine) {
+        this.channel = channel;
+        this.engine = engine;
+    }
+
+    void start() {
+        String name = String.valueOf(channel.socket().getPort());
+        Thread reader = new Thread(this::readLoop, "OrderGateway-read-" + name);
+        Thread writer = new Thread(this::writeLoop, "OrderGateway-write-" + name);
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    private void readLoop() {
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+        try {
+            readFully(in, OrderProtocol.HANDSHAKE.length + OrderProtocol.LOGON_SIZE);
+            if (!Arrays.equals(Arrays.copyOf(in.array(), 3), Arrays.copyOf(OrderProtocol.HANDSHAKE, 3))
+                    || in.get(3) != OrderProtocol.VERSION || in.get(4) != OrderProtocol.MSG_LOGON) {
+                throw new IOException("Bad handshake");
+            }
+            int id = in.getInt(8);
+            if (!engine.clientExists(id)) {
+                // Written right here, the writer stops as soon as the session closes
+                ByteBuffer reject = ByteBuffer.allocate(OrderProtocol.REJECT_SIZE);
+                OrderProtocol.putReject(reject, OrderProtocol.REJECT_UNKNOWN_CLIENT, 0);
+                reject.flip();
+                while (reject.hasRemaining()) channel.write(reject);
+                System.err.println("[OrderGateway] Logon rejected, unknown client " + id);
+                return;
+            }
+            clientId = id;
+            byte[] symbols = FeedProtocol.encodeSymbols(engine.getSymbols());
+            synchronized (this) {
+                outbound = ensure(outbound, symbols.length);
+                outbound.put(symbols);
+                wakeWriter();
+            }
+            System.out.println("[OrderGateway] Client " + clientId + " logged on");
+
+            in.clear();
+            while (open) {
+                if (channel.read(in) < 0) break;
+                in.flip();
+                while (in.remaining() > 0) {
+                    int size = OrderProtocol.clientMessageSize(in.get(in.position()));
+                    if (size == 0) throw new IOException("Unknown message type " + in.get(in.position()));
+                    if (in.remaining() < size) break;
+                    if (!awaitCapacity()) return;
+                    handle(in);
+                }
+                in.compact();
+            }
+        } catch (EOFException ignored) {
+            // client went away
+        } catch (IOException e) {
+            if (open) System.err.println("[OrderGateway] Connection error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    // Takes an in-flight slot for the next message, waiting while they are all taken; false once closed
+    private synchronized boolean awaitCapacity() throws InterruptedException {
+        while (open && inFlight >= MAX_IN_FLIGHT) {
+            readerWaiting = true;
+            wait();
+        }
+        inFlight++;
+        return open;
+    }
+
+    private void handle(ByteBuffer in) {
+        byte type = in.get();
+        if (type == OrderProtocol.MSG_NEW) {
+            boolean buy = in.get() == 0;
+            int symbolId = in.getShort() & 0xFFFF;
+            long clientOrderId = in.getLong();
+            double price = in.getDouble();
+            double quantity = in.getDouble();
+            engine.submitOrder(clientId, symbolId, buy, price, quantity, result -> reply(result, clientOrderId));
+        } else if (type == OrderProtocol.MSG_CANCEL) {
+            in.get();
+            in.getShort();
+            long orderId = in.getLong();
+            long clientOrderId = in.getLong();
+            engine.submitCancel(clientId, orderId, result -> reply(result, clientOrderId));
+        } else {
+            // A second LOGON
+            in.position(in.position() + OrderProtocol.LOGON_SIZE - 1);
+            reply(-OrderProtocol.REJECT_BAD_MESSAGE, 0);
+        }
+    }
+
+    // Called on the shard threads: an ACK for a result >= 0, a REJECT otherwise
+    private void reply(long result, long clientOrderId) {
+        synchronized (this) {
+            inFlight--;
+            // half drained before reading again, so the reader doesn't wake for every reply
+            if (readerWaiting && inFlight <= MAX_IN_FLIGHT / 2) {
+                readerWaiting = false;
+                notifyAll();
+            }
+            if (!open) return;
+            if (outbound.position() + OrderProtocol.ACK_SIZE <= MAX_OUTBOUND) {
+                outbound = ensure(outbound, OrderProtocol.ACK_SIZE);
+                if (result >= 0) {
+                    OrderProtocol.putAck(outbound, result, clientOrderId);
+                } else {
+                    OrderProtocol.putReject(outbound, (int) -result, clientOrderId);
+                }
+                wakeWriter();
+                return;
+            }
+            System.err.println("[OrderGateway] Client " + clientId + " is not reading its acks, disconnecting");
+        }
+        // Closing the socket also frees a writer stuck in write() and a reader stuck in read()
+        close();
+    }
+
+    private void wakeWriter() {
+        if (writerWaiting) {
+            writerWaiting = false;
+            notifyAll();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (open && outbound.position() == 0) {
+                        writerWaiting = true;
+                        wait();
+                    }
+                    if (!open) break;
+                    ByteBuffer full = outbound;
+                    outbound = writing;
+                    writing = full;
+                }
+                writing.flip();
+                while (writing.hasRemaining()) channel.write(writing);
+                writing.clear();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (open) System.err.println("[OrderGateway] Write error: " + e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    private void readFully(ByteBuffer in, int bytes) throws IOException {
+        in.clear().limit(bytes);
+        while (in.hasRemaining()) {
+            if (channel.read(in) < 0) throw new EOFException();
+        }
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buf, int extra) {
+        if (buf.remaining() >= extra) return buf;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + extra));
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+
+    // Every way out ends here, so the socket never outlives the session
+    private void close() {
+        synchronized (this) {
+            open = false;
+            notifyAll();
+        }
+        try { channel.close(); } catch (IOException ignored) {}
+    }
+}
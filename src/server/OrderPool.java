@@ -0,0 +1,24 @@
+package server;
+
+// Free list of RestingOrder objects so the order entry and matching paths don't allocate.
+// Not thread safe: each OrderBook owns one and uses it under its own lock.
+class OrderPool {
+
+    private final RestingOrder[] free;
+    private int size;
+
+    OrderPool(int capacity) {
+        free = new RestingOrder[capacity];
+        for (int i = 0; i < capacity; i++) free[i] = new RestingOrder();
+        size = capacity;
+    }
+
+    RestingOrder acquire() {
+        return size > 0 ? free[--size] : new RestingOrder();
+    }
+
+    void release(RestingOrder order) {
+        // Past capacity the order is simply left to the GC
+        if (size < free.length) free[size++] = order;
+    }
+}
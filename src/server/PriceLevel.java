@@ -0,0 +1,89 @@
+package server;
+
+import common.DepthLevel;
+import common.InstrumentSpec;
+import common.Order;
+
+import java.util.Collection;
+
+// One price level of the book: resting orders at the same price in arrival (FIFO) order.
+// The queue is linked through the orders themselves so any order can be unlinked in O(1).
+class PriceLevel {
+
+    private final long priceTicks;
+    // Boxed once here so removing the level from the book's maps doesn't allocate
+    private final Long key;
+    private RestingOrder head;
+    private RestingOrder tail;
+    // Kept up to date on every change so depth queries never walk the orders
+    private long totalLots;
+    private int orderCount;
+    // Set while the level waits in its book's list of depth changes
+    boolean depthChanged;
+
+    PriceLevel(long priceTicks) {
+        this.priceTicks = priceTicks;
+        this.key = priceTicks;
+    }
+
+    long getPriceTicks() { return priceTicks; }
+    Long getKey() { return key; }
+
+    long getTotalLots() { return totalLots; }
+    int getOrderCount() { return orderCount; }
+
+    boolean isEmpty() { return head == null; }
+
+    void add(RestingOrder order) {
+        order.level = this;
+        order.prev = tail;
+        order.next = null;
+        if (tail == null) head = order; else tail.next = order;
+        tail = order;
+        totalLots += order.getRemainingLots();
+        orderCount++;
+    }
+
+    void fill(RestingOrder order, long lots) {
+        order.fill(lots);
+        totalLots -= lots;
+    }
+
+    RestingOrder peek() {
+        return head;
+    }
+
+    void remove(RestingOrder order) {
+        if (order.prev == null) head = order.next; else order.prev.next = order.next;
+        if (order.next == null) tail = order.prev; else order.next.prev = order.prev;
+        order.prev = null;
+        order.next = null;
+        order.level = null;
+        totalLots -= order.getRemainingLots();
+        orderCount--;
+    }
+
+    // True if any order was removed
+    boolean removeFilled(OrderPool pool) {
+        boolean removed = false;
+        RestingOrder o = head;
+        while (o != null) {
+            RestingOrder next = o.next;
+            if (o.getRemainingLots() == 0) {
+                remove(o);
+                pool.release(o);
+                removed = true;
+            }
+            o = next;
+        }
+        return removed;
+    }
+
+    DepthLevel toDepthLevel(InstrumentSpec spec) {
+        return new DepthLevel(spec.toPrice(priceTicks), spec.toQuantity(totalLots), orderCount);
+    }
+
+    void copyTo(Collection<Order> out, InstrumentSpec spec) {
+        for (RestingOrder o = head; o != null; o = o.next) out.add(o.toOrder(spec));
+    }
+}
@@ -0,0 +1,58 @@
+package server;
+
+/**
+ * Prices seen over a sliding window of simulation time, kept in fixed-size primitive
+ * ring buffers. At most one sample is stored per bucket (the first one), so the ring
+ * never holds more than window/bucket + 1 entries. Append, eviction and the
+ * reference lookup are O(1) and allocate nothing.
+ * Not thread safe: each symbol's windows are only touched by its matching thread.
+ */
+class PriceWindow {
+
+    private final long windowMs;
+    private final long bucketMs;
+    private final double[] prices;
+    private final long[] times;
+    private int head;
+    private int size;
+
+    PriceWindow(long windowMs, long bucketMs) {
+        this.windowMs = windowMs;
+        this.bucketMs = bucketMs;
+        int capacity = (int) (windowMs / bucketMs) + 1;
+        this.prices = new double[capacity];
+        this.times = new long[capacity];
+    }
+
+    // time is simulation epoch millis and must not go backwards
+    void add(long time, double price) {
+        while (size > 0 && times[head] < time - windowMs) {
+            head = next(head);
+            size--;
+        }
+        if (size > 0 && times[last()] / bucketMs == time / bucketMs) return;
+        if (size == prices.length) {
+            head = next(head);
+            size--;
+        }
+        int slot = (head + size) % prices.length;
+        prices[slot] = price;
+        times[slot] = time;
+        size++;
+    }
+
+    // Percent change of price against the start of the window
+    double changePercent(double price) {
+        if (size == 0) return 0;
+        double ref = prices[head];
+        return ref != 0 ? ((price - ref) / ref) * 100 : 0;
+    }
+
+    private int last() {
+        return (head + size - 1) % prices.length;
+    }
+
+    private int next(int i) {
+        return i + 1 == prices.length ? 0 : i + 1;
+    }
+}
@@ -0,0 +1,91 @@
+package server;
+
+import common.FeedProtocol;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * TCP request channel of the multicast feed. Receivers only come here to learn the symbol
+ * table, to take a snapshot when they join and to fetch sequences they missed, so a plain
+ * thread per connection is enough.
+ */
+public class RecoveryServer implements Runnable {
+
+    private final int port;
+    private final FeedPublisher feed;
+    private ServerSocket serverSocket;
+    private volatile boolean running = true;
+
+    public RecoveryServer(int port, MarketEngine engine) {
+        this.port = port;
+        this.feed = engine.getFeed();
+    }
+
+    @Override
+    public void run() {
+        try {
+            serverSocket = new ServerSocket(port);
+            System.out.println("[RecoveryServer] Listening on port " + port);
+            while (running) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread t = new Thread(() -> serve(socket), "Recovery-" + socket.getPort());
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    if (running) System.err.println("[RecoveryServer] Accept error: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[RecoveryServer] Could not start: " + e.getMessage());
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            byte[] handshake = new byte[FeedProtocol.HANDSHAKE.length];
+            in.readFully(handshake);
+            if (!Arrays.equals(Arrays.copyOf(handshake, 3), Arrays.copyOf(FeedProtocol.HANDSHAKE, 3))) {
+                System.err.println("[RecoveryServer] Not a feed client: " + s.getRemoteSocketAddress());
+                return;
+            }
+            while (running) {
+                String command = in.readUTF();
+                if (command.equals("DISCONNECT")) break;
+                out.write(answer(command));
+                out.flush();
+            }
+        } catch (EOFException ignored) {
+            // client went away
+        } catch (IOException e) {
+            System.err.println("[RecoveryServer] Connection error: " + e.getMessage());
+        }
+    }
+
+    private byte[] answer(String command) {
+        if (command.equals("SYMBOLS")) {
+            return FeedPublisher.withEnd(FeedProtocol.encodeSymbols(feed.getSymbols()), 0);
+        }
+        if (command.equals("SNAPSHOT")) return feed.snapshot();
+        if (command.startsWith("REPLAY:")) {
+            String[] range = command.substring(7).split(":");
+            try {
+                return feed.replay(Long.parseLong(range[0]), Long.parseLong(range[1]));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                System.err.println("[RecoveryServer] Bad request: " + command);
+            }
+        }
+        return FeedProtocol.encodeEnd(-1);
+    }
+
+    public void stop() {
+        running = false;
+        try { if (serverSocket != null) serverSocket.close(); } catch (IOException ignored) {}
+    }
+}
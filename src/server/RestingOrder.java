@@ -0,0 +1,59 @@
+package server;
+
+import common.InstrumentSpec;
+import common.Order;
+
+// Mutable order as held inside an OrderBook. Instances are recycled through OrderPool,
+// so nothing outside the book may keep a reference without re-checking the id under
+// the book's lock; callers get Order copies instead.
+class RestingOrder {
+
+    private long id;
+    private int clientId;
+    private String symbol;
+    private boolean buy;
+    private long priceTicks;
+    private long quantityLots;
+    private long remainingLots;
+    private long timestamp; // epoch millis
+
+    // Links of the price level queue this order rests in
+    RestingOrder prev;
+    RestingOrder next;
+    PriceLevel level;
+
+    void init(long id, int clientId, String symbol, boolean buy, long priceTicks, long quantityLots, long timestamp) {
+        this.id = id;
+        this.clientId = clientId;
+        this.symbol = symbol;
+        this.buy = buy;
+        this.priceTicks = priceTicks;
+        this.quantityLots = quantityLots;
+        this.remainingLots = quantityLots;
+        this.timestamp = timestamp;
+    }
+
+    long getId() { return id; }
+    int getClientId() { return clientId; }
+    String getSymbol() { return symbol; }
+    boolean isBuy() { return buy; }
+    long getPriceTicks() { return priceTicks; }
+    long getQuantityLots() { return quantityLots; }
+    long getRemainingLots() { return remainingLots; }
+    void fill(long lots) { remainingLots -= lots; }
+    long getTimestamp() { return timestamp; }
+    boolean isResting() { return level != null; }
+
+    // Amend keeps the id; a new quantity counts as a fresh order of that size
+    void amend(long priceTicks, long remainingLots, long timestamp) {
+        this.priceTicks = priceTicks;
+        this.quantityLots = remainingLots;
+        this.remainingLots = remainingLots;
+        this.timestamp = timestamp;
+    }
+
+    Order toOrder(InstrumentSpec spec) {
+        return new Order(id, clientId, symbol, buy ? Order.OrderType.BUY : Order.OrderType.SELL,
+                spec, priceTicks, quantityLots, remainingLots, timestamp);
+    }
+}
@@ -0,0 +1,216 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free multi-producer ring buffer in front of each matching shard.
+ * Producers claim a sequence, fill the preallocated slot and publish it; the shard's
+ * consumer thread drains every published slot in one batch per wake-up, runs the
+ * commands and hands each result back to its caller. How both sides wait is set by
+ * the WaitStrategy, trading CPU for latency. After shutdown new commands are rejected and
+ * the ones still in the rings fail with RejectedExecutionException instead of running.
+ */
+public class RingBufferIntake implements MatchingIntake {
+
+    public enum WaitStrategy {
+        BLOCKING,  // park until signalled, cheapest on CPU
+        YIELDING,  // spin a little, then yield the core
+        BUSY_SPIN  // never give up the core, lowest latency
+    }
+
+    private static final int MAX_BATCH = 256;
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 1_000_000L; // safety net against a missed wake-up
+
+    private final Ring[] rings;
+    private final Map<String, Integer> shardOfSymbol;
+    private final WaitStrategy waitStrategy;
+    private volatile boolean running = true;
+
+    public RingBufferIntake(int shardCount, Collection<String> symbols, int ringSize, WaitStrategy waitStrategy) {
+        if (Integer.bitCount(ringSize) != 1) throw new IllegalArgumentException("Ring size must be a power of two");
+        int count = MatchingIntake.shardCount(shardCount, symbols);
+        this.waitStrategy = waitStrategy;
+        rings = new Ring[count];
+        for (int i = 0; i < count; i++) {
+            rings[i] = new Ring(ringSize);
+            Thread t = new Thread(rings[i]::consume, "Matching-" + i);
+            t.setDaemon(true);
+            rings[i].consumer = t;
+            t.start();
+        }
+        shardOfSymbol = MatchingIntake.assignShards(symbols, count);
+    }
+
+    @Override
+    public <T> Future<T> submit(String symbol, Callable<T> command) {
+        Completion<T> completion = new Completion<>();
+        rings[shardOfSymbol.get(symbol)].publish(command, completion);
+        return completion;
+    }
+
+    // Commands still in the rings are failed by the consumers on their way out
+    @Override
+    public void shutdown() {
+        running = false;
+        for (Ring ring : rings) LockSupport.unpark(ring.consumer);
+    }
+
+    private void idle(int tries) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELDING:
+                if (tries < SPIN_TRIES) Thread.onSpinWait(); else Thread.yield();
+                break;
+            default:
+                if (tries < SPIN_TRIES) Thread.onSpinWait(); else LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+
+    // One slot of the ring; reused for every sequence that maps to it
+    private static final class Slot {
+        Callable<?> command;
+        Completion<?> completion;
+    }
+
+    private final class Ring {
+        private final Slot[] slots;
+        private final int mask;
+        // Sequence each slot was last published with; a slot is readable once it equals the wanted sequence
+        private final AtomicLongArray published;
+        private final AtomicLong claimed = new AtomicLong(-1);
+        private volatile long consumed = -1;
+        private volatile boolean consumerParked;
+        // Producers between the running check and publishing their slot
+        private final AtomicInteger producers = new AtomicInteger();
+        Thread consumer;
+
+        Ring(int size) {
+            slots = new Slot[size];
+            for (int i = 0; i < size; i++) slots[i] = new Slot();
+            mask = size - 1;
+            published = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) published.set(i, -1);
+        }
+
+        void publish(Callable<?> command, Completion<?> completion) {
+            producers.incrementAndGet();
+            try {
+                // Checked after announcing ourselves: either we see the shutdown or the consumer waits for us
+                if (!running) throw new RejectedExecutionException("Matching intake is shut down");
+                long seq = claimed.incrementAndGet();
+                // Ring full: wait for the consumer to free the slot (backpressure on the callers)
+                for (int tries = 0; seq - slots.length > consumed; tries++) idle(tries);
+                Slot slot = slots[(int) seq & mask];
+                slot.command = command;
+                slot.completion = completion;
+                published.set((int) seq & mask, seq);
+            } finally {
+                producers.decrementAndGet();
+            }
+            if (consumerParked) LockSupport.unpark(consumer);
+        }
+
+        void consume() {
+            int tries = 0;
+            // After shutdown keep going until every claimed slot has been handed back
+            while (running || producers.get() > 0 || consumed < claimed.get()) {
+                long next = consumed + 1;
+                if (published.get((int) next & mask) != next) {
+                    if (waitStrategy == WaitStrategy.BLOCKING && tries >= SPIN_TRIES) {
+                        consumerParked = true;
+                        // Re-check after announcing, a producer may have published in between
+                        if (published.get((int) next & mask) != next) LockSupport.parkNanos(this, PARK_NANOS);
+                        consumerParked = false;
+                    } else {
+                        idle(tries);
+                    }
+                    tries++;
+                    continue;
+                }
+                tries = 0;
+
+                // Take everything already published, up to one batch
+                long last = next;
+                while (last - next + 1 < MAX_BATCH && published.get((int) (last + 1) & mask) == last + 1) {
+                    last++;
+                }
+                for (long seq = next; seq <= last; seq++) {
+                    Slot slot = slots[(int) seq & mask];
+                    Callable<?> command = slot.command;
+                    Completion<?> completion = slot.completion;
+                    slot.command = null;
+                    slot.completion = null;
+                    if (running) completion.run(command); else completion.reject();
+                }
+                consumed = last;
+            }
+        }
+    }
+
+    // Result handed back from the matching thread; callers wait on it with the intake's strategy
+    private final class Completion<T> implements Future<T> {
+        private final Thread waiter = Thread.currentThread();
+        private T result;
+        private Throwable error;
+        private volatile boolean done;
+
+        @SuppressWarnings("unchecked")
+        void run(Callable<?> command) {
+            try {
+                result = (T) command.call();
+            } catch (Throwable t) {
+                error = t;
+            }
+            finish();
+        }
+
+        void reject() {
+            error = new RejectedExecutionException("Matching intake is shut down");
+            finish();
+        }
+
+        private void finish() {
+            done = true;
+            if (waitStrategy == WaitStrategy.BLOCKING) LockSupport.unpark(waiter);
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            for (int tries = 0; !done; tries++) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                idle(tries);
+            }
+            if (error != null) throw new ExecutionException(error);
+            return result;
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            for (int tries = 0; !done; tries++) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (System.nanoTime() > deadline) throw new TimeoutException();
+                idle(tries);
+            }
+            if (error != null) throw new ExecutionException(error);
+            return result;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) { return false; }
+
+        @Override
+        public boolean isCancelled() { return false; }
+
+        @Override
+        public boolean isDone() { return done; }
+    }
+}
@@ -1,6 +1,7 @@
 package server;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 
 /**
@@ -14,24 +15,59 @@ public class SimulationClock {
     private static final int SCALE_FACTOR = 60;
 
     private final LocalDateTime simulationStart;
+    private final long simulationStartMs;
     private final long realStartMs;
 
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
+    // The time only moves once per real second, so every trade and update in between shares one stamp
+    private volatile Stamp lastStamp;
+
+    private static final class Stamp {
+        final long elapsedSeconds;
+        final LocalDateTime time;
+        final String text;
+
+        Stamp(long elapsedSeconds, LocalDateTime time) {
+            this.elapsedSeconds = elapsedSeconds;
+            this.time = time;
+            this.text = time.format(FORMATTER);
+        }
+    }
+
     public SimulationClock() {
         simulationStart = LocalDateTime.of(2025, 1, 1, 9, 0, 0);
+        simulationStartMs = simulationStart.toInstant(ZoneOffset.UTC).toEpochMilli();
         realStartMs = System.currentTimeMillis();
     }
 
     public LocalDateTime getSimulationTime() {
+        return stamp().time;
+    }
+
+    private Stamp stamp() {
+        long elapsed = elapsedSimSeconds();
+        Stamp stamp = lastStamp;
+        if (stamp == null || stamp.elapsedSeconds != elapsed) {
+            stamp = new Stamp(elapsed, simulationStart.plusSeconds(elapsed));
+            lastStamp = stamp;
+        }
+        return stamp;
+    }
+
+    // Simulation time as epoch millis (simulation times are treated as UTC); allocation free
+    public long getSimulationMillis() {
+        return simulationStartMs + elapsedSimSeconds() * 1000L;
+    }
+
+    private long elapsedSimSeconds() {
         long elapsedRealMs = System.currentTimeMillis() - realStartMs;
-        long elapsedSimSeconds = (elapsedRealMs / 1000L) * SCALE_FACTOR;
-        return simulationStart.plusSeconds(elapsedSimSeconds);
+        return (elapsedRealMs / 1000L) * SCALE_FACTOR;
     }
 
     public String getSimulationTimeString() {
-        return getSimulationTime().format(FORMATTER);
+        return stamp().text;
     }
 
     public String getSimulationDayString() {
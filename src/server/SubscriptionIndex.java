@@ -0,0 +1,140 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Which feed connections want which symbol. Publishing reads one array for the symbol
+ * plus the array of connections that take everything, so an update only touches the
+ * connections interested in it. Arrays are copied on change; subscription commands are
+ * rare next to updates. A connection starts out taking every symbol until it narrows
+ * its subscription.
+ */
+class SubscriptionIndex {
+
+    private static final TcpClientHandler[] NONE = new TcpClientHandler[0];
+
+    private final List<String> symbols;
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    private final AtomicReferenceArray<TcpClientHandler[]> bySymbol;
+    private volatile TcpClientHandler[] allSymbols = NONE;
+    // Symbol ids per connection; null means every symbol. Guarded by this.
+    private final Map<TcpClientHandler, BitSet> subscriptions = new HashMap<>();
+
+    SubscriptionIndex(List<String> symbols) {
+        this.symbols = new ArrayList<>(symbols);
+        for (int i = 0; i < symbols.size(); i++) symbolIds.put(symbols.get(i), i);
+        bySymbol = new AtomicReferenceArray<>(symbols.size());
+        for (int i = 0; i < symbols.size(); i++) bySymbol.set(i, NONE);
+    }
+
+    TcpClientHandler[] subscribers(int symbolId) {
+        return bySymbol.get(symbolId);
+    }
+
+    TcpClientHandler[] allSymbolSubscribers() {
+        return allSymbols;
+    }
+
+    synchronized void register(TcpClientHandler handler) {
+        if (subscriptions.containsKey(handler)) return;
+        subscriptions.put(handler, null);
+        allSymbols = with(allSymbols, handler);
+    }
+
+    synchronized void unregister(TcpClientHandler handler) {
+        if (!subscriptions.containsKey(handler)) return;
+        apply(handler, new BitSet());
+        subscriptions.remove(handler);
+    }
+
+    // SUBSCRIBE: exactly these symbols; an empty list means all of them again
+    synchronized void replace(TcpClientHandler handler, Collection<String> names) {
+        if (!subscriptions.containsKey(handler)) return;
+        apply(handler, names.isEmpty() ? null : ids(names));
+    }
+
+    synchronized void add(TcpClientHandler handler, Collection<String> names) {
+        if (!subscriptions.containsKey(handler)) return;
+        BitSet current = subscriptions.get(handler);
+        BitSet next = current == null ? new BitSet() : (BitSet) current.clone();
+        next.or(ids(names));
+        apply(handler, next);
+    }
+
+    synchronized void remove(TcpClientHandler handler, Collection<String> names) {
+        if (!subscriptions.containsKey(handler)) return;
+        BitSet current = subscriptions.get(handler);
+        BitSet next = (BitSet) (current != null ? current : everything()).clone();
+        next.andNot(ids(names));
+        apply(handler, next);
+    }
+
+    synchronized boolean wants(TcpClientHandler handler, int symbolId) {
+        if (!subscriptions.containsKey(handler)) return false;
+        BitSet ids = subscriptions.get(handler);
+        return ids == null || ids.get(symbolId);
+    }
+
+    // For logging; empty means every symbol
+    synchronized List<String> symbolsOf(TcpClientHandler handler) {
+        BitSet ids = subscriptions.get(handler);
+        List<String> names = new ArrayList<>();
+        if (ids != null) {
+            for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) names.add(symbols.get(i));
+        }
+        return names;
+    }
+
+    // Moves the connection from its current subscription to next (null = all), touching only what changed
+    private void apply(TcpClientHandler handler, BitSet next) {
+        BitSet current = subscriptions.get(handler);
+        if (current == null && next == null) return;
+        if (current == null) allSymbols = without(allSymbols, handler);
+        if (next == null) allSymbols = with(allSymbols, handler);
+
+        BitSet before = current != null ? current : new BitSet();
+        BitSet after = next != null ? next : new BitSet();
+        BitSet changed = (BitSet) before.clone();
+        changed.xor(after);
+        for (int id = changed.nextSetBit(0); id >= 0; id = changed.nextSetBit(id + 1)) {
+            TcpClientHandler[] list = bySymbol.get(id);
+            bySymbol.set(id, after.get(id) ? with(list, handler) : without(list, handler));
+        }
+        subscriptions.put(handler, next);
+    }
+
+    // Unknown symbols are ignored
+    private BitSet ids(Collection<String> names) {
+        BitSet ids = new BitSet(symbols.size());
+        for (String name : names) {
+            Integer id = symbolIds.get(name);
+            if (id != null) ids.set(id);
+        }
+        return ids;
+    }
+
+    private BitSet everything() {
+        BitSet all = new BitSet(symbols.size());
+        all.set(0, symbols.size());
+        return all;
+    }
+
+    static TcpClientHandler[] with(TcpClientHandler[] list, TcpClientHandler handler) {
+        TcpClientHandler[] copy = Arrays.copyOf(list, list.length + 1);
+        copy[list.length] = handler;
+        return copy;
+    }
+
+    static TcpClientHandler[] without(TcpClientHandler[] list, TcpClientHandler handler) {
+        for (int i = 0; i < list.length; i++) {
+            if (list[i] == handler) {
+                TcpClientHandler[] copy = new TcpClientHandler[list.length - 1];
+                System.arraycopy(list, 0, copy, 0, i);
+                System.arraycopy(list, i + 1, copy, i, list.length - i - 1);
+                return copy;
+            }
+        }
+        return list;
+    }
+}
@@ -1,84 +1,369 @@
 package server;
 
-import common.MarketUpdate;
+import common.FeedProtocol;
 
-import java.io.*;
-import java.net.Socket;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
 
-public class TcpClientHandler implements Runnable {
+/**
+ * One feed subscriber on a non-blocking channel, speaking either the legacy Java
+ * serialization stream or the binary FeedProtocol, whichever its first bytes ask for.
+ * Legacy clients get depth as serialized DepthUpdate objects.
+ * It has no thread of its own: its FeedSelector reads its commands and writes its queued
+ * data, while publishing threads only append shared, already encoded chunks to the queue.
+ *
+ * The queue is bounded. Past CONFLATE_BYTES of backlog, price updates are conflated to
+ * the latest one per symbol until the backlog drains; a client that stays conflated for
+ * SLOW_CONSUMER_MS, or still overflows MAX_PENDING_BYTES, is disconnected. Depth snapshots
+ * are kept out of these limits, since a deep book alone can exceed them; up to
+ * MAX_SNAPSHOT_BYTES of them may wait on top of the rest.
+ */
+public class TcpClientHandler {
 
-    private final Socket socket;
+    private static final int INITIAL_INBOUND = 256;
+    private static final int MAX_INBOUND = 64 * 1024;
+    private static final int CONFLATE_BYTES = 64 * 1024;
+    private static final int MAX_PENDING_BYTES = 256 * 1024;
+    private static final int MAX_SNAPSHOT_BYTES = 16 * 1024 * 1024;
+    private static final long SLOW_CONSUMER_MS = 10_000L;
+
+    private enum Protocol { JAVA, BINARY }
+
+    private final SocketChannel channel;
     private final MarketEngine engine;
-    private final ObjectOutputStream oos;
-    private ObjectInputStream ois;
-    private final Set<String> subscribedSymbols = new HashSet<>();
-    private volatile boolean running = true;
+    private final FeedSelector loop;
+    private SelectionKey key;
+
+    // Selector thread only
+    private ByteBuffer inbound = ByteBuffer.allocate(INITIAL_INBOUND);
+    // Set once by the selector thread before the engine starts publishing to us
+    private volatile Protocol protocol;
+    private final JavaStreamCodec.StringReader commands = new JavaStreamCodec.StringReader();
+
+    // Outbound chunks, guarded by this; the first one may be partly written already
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+    private int headOffset;
+    private int pendingBytes;
+    // Snapshot chunks still in pending, in queue order, and their share of pendingBytes
+    private final ArrayDeque<byte[]> snapshots = new ArrayDeque<>();
+    private int snapshotBytes;
+    private boolean flushQueued;
+    // While conflating: latest chunk per symbol id with its sequence, and the symbols that have one
+    private final byte[][] conflated;
+    private final long[] conflatedSequence;
+    private final int[] dirtySymbols;
+    private int dirtyCount;
+    private long conflatingSince = -1;
+    private boolean evict;
+    private volatile boolean open = true;
+
+    // This connection's share of the batch being published; only touched under the FeedPublisher lock
+    final List<FeedMessage> batch = new ArrayList<>();
 
-    public TcpClientHandler(Socket socket, MarketEngine engine) throws IOException {
-        this.socket = socket;
+    TcpClientHandler(SocketChannel channel, MarketEngine engine, FeedSelector loop) {
+        this.channel = channel;
         this.engine = engine;
-        this.oos = new ObjectOutputStream(socket.getOutputStream());
-        this.oos.flush();
+        this.loop = loop;
+        int symbolCount = engine.getSymbols().size();
+        this.conflated = new byte[symbolCount][];
+        this.conflatedSequence = new long[symbolCount];
+        this.dirtySymbols = new int[symbolCount];
     }
 
-    @Override
-    public void run() {
+    void attach(Selector selector) {
         try {
-            ois = new ObjectInputStream(socket.getInputStream());
-            engine.registerTcpClient(this);
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            close();
+        }
+    }
 
-            // Read subscription request: comma-separated symbols
-            while (running) {
-                try {
-                    Object msg = ois.readObject();
-                    if (msg instanceof String) {
-                        String cmd = (String) msg;
-                        if (cmd.startsWith("SUBSCRIBE:")) {
-                            String[] syms = cmd.substring(10).split(",");
-                            synchronized (subscribedSymbols) {
-                                subscribedSymbols.clear();
-                                for (String s : syms) {
-                                    subscribedSymbols.add(s.trim());
-                                }
-                            }
-                            System.out.println("[TcpClientHandler] Client subscribed to: " + subscribedSymbols);
-                        } else if (cmd.equals("DISCONNECT")) {
-                            break;
-                        }
-                    }
-                } catch (EOFException | java.net.SocketException e) {
-                    break;
-                } catch (ClassNotFoundException e) {
-                    System.err.println("[TcpClientHandler] Unknown class: " + e.getMessage());
+    // Queues our part of a published batch as one chunk, so it goes out in one write. A backed-up
+    // connection takes the messages one by one instead, so price updates can be conflated.
+    void sendBatch(FeedPublisher publisher) {
+        boolean conflating;
+        synchronized (this) {
+            conflating = conflatingSince >= 0;
+        }
+        if (batch.size() == 1 || conflating) {
+            for (FeedMessage message : batch) send(message);
+        } else {
+            enqueue(protocol == Protocol.BINARY ? publisher.binaryChunk(batch) : publisher.javaChunk(batch), -1, 0);
+        }
+        batch.clear();
+    }
+
+    // A depth snapshot goes out as one chunk that doesn't count as backlog
+    void sendSnapshot(FeedPublisher publisher, List<FeedMessage> snapshot) {
+        enqueue(protocol == Protocol.BINARY ? publisher.binaryChunk(snapshot) : publisher.javaChunk(snapshot), -1, 0, true);
+    }
+
+    int encodedSize(FeedMessage message) {
+        return protocol == Protocol.BINARY ? message.binaryFrame().length : message.javaChunk().length;
+    }
+
+    // Closes a RESUME: an END frame, or an "END:<sequence>" string for legacy clients
+    void sendEnd(long sequence) {
+        enqueue(protocol == Protocol.BINARY ? FeedProtocol.encodeEnd(sequence) : JavaStreamCodec.encode("END:" + sequence), -1, 0);
+    }
+
+    // Queues the message's shared bytes in this connection's protocol; never blocks
+    private void send(FeedMessage message) {
+        byte[] chunk = protocol == Protocol.BINARY ? message.binaryFrame() : message.javaChunk();
+        if (message.isConflatable()) {
+            enqueue(chunk, message.getSymbolId(), message.getUpdate().getSequence());
+        } else {
+            enqueue(chunk, -1, 0);
+        }
+    }
+
+    private void enqueue(byte[] chunk, int conflateId, long sequence) {
+        enqueue(chunk, conflateId, sequence, false);
+    }
+
+    // conflateId is the symbol id of a price chunk with that sequence that may replace an older one, -1 otherwise
+    private void enqueue(byte[] chunk, int conflateId, long sequence, boolean snapshot) {
+        synchronized (this) {
+            if (!open || evict) return;
+            int backlog = pendingBytes - snapshotBytes;
+            if (!snapshot && conflatingSince < 0 && backlog + chunk.length > CONFLATE_BYTES) {
+                conflatingSince = System.currentTimeMillis();
+            }
+            if (conflatingSince >= 0 && conflateId >= 0) {
+                // Backlog is still draining, so a flush is already on its way and will pick this up
+                if (conflated[conflateId] == null) dirtySymbols[dirtyCount++] = conflateId;
+                conflated[conflateId] = chunk;
+                conflatedSequence[conflateId] = sequence;
+                return;
+            }
+            if (snapshot ? snapshotBytes + chunk.length > MAX_SNAPSHOT_BYTES : backlog + chunk.length > MAX_PENDING_BYTES) {
+                // Even conflated it doesn't keep up; the selector thread disconnects it
+                evict = true;
+            } else {
+                pending.add(chunk);
+                pendingBytes += chunk.length;
+                if (snapshot) {
+                    snapshots.add(chunk);
+                    snapshotBytes += chunk.length;
                 }
+                if (flushQueued) return;
             }
-        } catch (IOException e) {
-            // client disconnected
-        } finally {
-            engine.unregisterTcpClient(this);
-            try { socket.close(); } catch (IOException ignored) {}
+            flushQueued = true;
         }
+        loop.requestFlush(this);
     }
 
-    public synchronized void sendUpdate(MarketUpdate update, String symbol) {
-        synchronized (subscribedSymbols) {
-            if (!subscribedSymbols.isEmpty() && !subscribedSymbols.contains(symbol)) {
+    // Selector thread: reads what arrived and runs every complete command
+    void read(ByteBuffer buffer) {
+        buffer.clear();
+        try {
+            int n = channel.read(buffer);
+            if (n < 0) {
+                close();
                 return;
             }
+            buffer.flip();
+            if (inbound.remaining() < buffer.remaining()) growInbound(buffer.remaining());
+            inbound.put(buffer);
+            inbound.flip();
+            processInbound();
+            inbound.compact();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void processInbound() throws IOException {
+        if (protocol == null) {
+            if (inbound.remaining() < 4) return;
+            if (inbound.getInt(inbound.position()) == JavaStreamCodec.STREAM_MAGIC) {
+                // Legacy clients open with the Java serialization stream header
+                enqueue(JavaStreamCodec.streamHeader(), -1, 0);
+                protocol = Protocol.JAVA;
+            } else if (FeedProtocol.isHandshake(inbound)) {
+                byte version = inbound.get(inbound.position() + 3);
+                if (version != FeedProtocol.VERSION) throw new IOException("Unsupported feed version " + version);
+                enqueue(FeedProtocol.encodeSymbols(engine.getSymbols()), -1, 0);
+                protocol = Protocol.BINARY;
+            } else {
+                throw new IOException("Unknown protocol");
+            }
+            inbound.position(inbound.position() + 4);
+            engine.registerTcpClient(this);
+        }
+        String cmd;
+        while (open && (cmd = nextCommand()) != null) {
+            SubscriptionIndex subscriptions = engine.getFeedSubscriptions();
+            if (cmd.startsWith("SUBSCRIBE:")) {
+                subscriptions.replace(this, symbolList(cmd.substring(10)));
+                System.out.println("[TcpClientHandler] Client subscribed to: " + subscriptions.symbolsOf(this));
+            } else if (cmd.startsWith("ADD:")) {
+                subscriptions.add(this, symbolList(cmd.substring(4)));
+            } else if (cmd.startsWith("REMOVE:")) {
+                subscriptions.remove(this, symbolList(cmd.substring(7)));
+            } else if (cmd.startsWith("RESUME:")) {
+                try {
+                    engine.resumeFeed(this, Long.parseLong(cmd.substring(7).trim()));
+                } catch (NumberFormatException e) {
+                    System.err.println("[TcpClientHandler] Bad resume request: " + cmd);
+                }
+            } else if (cmd.startsWith("DEPTH:")) {
+                engine.subscribeDepth(this, symbolList(cmd.substring(6)));
+            } else if (cmd.startsWith("NODEPTH:")) {
+                engine.unsubscribeDepth(this, symbolList(cmd.substring(8)));
+            } else if (cmd.equals("DISCONNECT")) {
+                close();
+            }
+        }
+    }
+
+    private static List<String> symbolList(String csv) {
+        List<String> symbols = new ArrayList<>();
+        for (String s : csv.split(",")) {
+            if (!s.trim().isEmpty()) symbols.add(s.trim());
+        }
+        return symbols;
+    }
+
+    private String nextCommand() throws IOException {
+        return protocol == Protocol.JAVA ? commands.next(inbound) : JavaStreamCodec.readUtf(inbound);
+    }
+
+    private void growInbound(int needed) throws IOException {
+        int size = inbound.capacity();
+        while (size - inbound.position() < needed) size *= 2;
+        if (size > MAX_INBOUND) throw new IOException("Command too long");
+        ByteBuffer bigger = ByteBuffer.allocate(size);
+        inbound.flip();
+        bigger.put(inbound);
+        inbound = bigger;
+    }
+
+    // Selector thread: writes the queue, then whatever got conflated meanwhile, until all is
+    // sent or the socket is full; in the latter case OP_WRITE brings us back
+    void flush(ByteBuffer buffer) {
+        if (!writeQueued(buffer)) close();
+    }
+
+    // False if the connection has to go. close() runs outside our lock: it unregisters from the
+    // feed, whose lock is held while publishing threads take ours
+    private synchronized boolean writeQueued(ByteBuffer buffer) {
+        if (!open) return true;
+        if (evict) {
+            System.err.println("[TcpClientHandler] Disconnecting slow client (queue full): " + remoteAddress());
+            return false;
         }
         try {
-            oos.writeObject(update); //pretvara obj u bajtove i salje klijentu
-            oos.flush();
-            oos.reset(); // prevent memory leak
+            while (writePending(buffer) && conflatingSince >= 0) {
+                releaseConflated();
+            }
         } catch (IOException e) {
-            running = false;
+            return false;
+        }
+        flushQueued = pendingBytes > 0;
+        if (key != null && key.isValid()) {
+            key.interestOps(pendingBytes > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+        return true;
+    }
+
+    // Selector thread, every sweep: drops a client that has been conflating for too long
+    void sweep(long now) {
+        synchronized (this) {
+            if (!open || conflatingSince < 0 || now - conflatingSince <= SLOW_CONSUMER_MS) return;
+            System.err.println("[TcpClientHandler] Disconnecting slow client (behind for "
+                    + (now - conflatingSince) + " ms): " + remoteAddress());
+        }
+        close();
+    }
+
+    // Copies queued chunks into the direct buffer and writes them; false once the socket is full
+    private boolean writePending(ByteBuffer buffer) throws IOException {
+        while (pendingBytes > 0) {
+            buffer.clear();
+            boolean first = true;
+            for (byte[] chunk : pending) {
+                int offset = first ? headOffset : 0;
+                first = false;
+                int length = Math.min(chunk.length - offset, buffer.remaining());
+                buffer.put(chunk, offset, length);
+                if (!buffer.hasRemaining()) break;
+            }
+            buffer.flip();
+            int written = channel.write(buffer);
+            consume(written);
+            if (buffer.hasRemaining()) return false;
+        }
+        return true;
+    }
+
+    // Backlog is gone: queue the latest price of every symbol that changed meanwhile, in sequence order
+    private void releaseConflated() {
+        // insertion sort, there is at most one entry per symbol
+        for (int i = 1; i < dirtyCount; i++) {
+            int id = dirtySymbols[i];
+            int j = i - 1;
+            for (; j >= 0 && conflatedSequence[dirtySymbols[j]] > conflatedSequence[id]; j--) {
+                dirtySymbols[j + 1] = dirtySymbols[j];
+            }
+            dirtySymbols[j + 1] = id;
+        }
+        for (int i = 0; i < dirtyCount; i++) {
+            int id = dirtySymbols[i];
+            pending.add(conflated[id]);
+            pendingBytes += conflated[id].length;
+            conflated[id] = null;
+        }
+        dirtyCount = 0;
+        conflatingSince = -1;
+    }
+
+    private void consume(int bytes) {
+        pendingBytes -= bytes;
+        while (bytes > 0) {
+            int left = pending.peekFirst().length - headOffset;
+            if (bytes < left) {
+                headOffset += bytes;
+                return;
+            }
+            bytes -= left;
+            byte[] sent = pending.pollFirst();
+            if (sent == snapshots.peekFirst()) {
+                snapshots.pollFirst();
+                snapshotBytes -= sent.length;
+            }
+            headOffset = 0;
+        }
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    // Never called with our lock held, see writeQueued
+    void close() {
+        synchronized (this) {
+            if (!open) return;
+            open = false;
+            pending.clear();
+            pendingBytes = 0;
+            snapshots.clear();
+            snapshotBytes = 0;
         }
+        engine.unregisterTcpClient(this);
+        if (key != null) key.cancel();
+        try { channel.close(); } catch (IOException ignored) {}
     }
 
-    public void stop() {
-        running = false;
-        try { socket.close(); } catch (IOException ignored) {}
+    private String remoteAddress() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "?";
+        }
     }
 }
@@ -1,36 +1,49 @@
 package server;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
+// Accepts feed subscribers and spreads them over a fixed set of selector threads
 public class TcpMarketServer implements Runnable {
 
     private final int port;
     private final MarketEngine engine;
-    private ServerSocket serverSocket;
+    private final int selectorCount;
+    private FeedSelector[] selectors;
+    private ServerSocketChannel serverChannel;
     private volatile boolean running = true;
-    private final ExecutorService pool = Executors.newCachedThreadPool();
 
-    public TcpMarketServer(int port, MarketEngine engine) {
+    public TcpMarketServer(int port, MarketEngine engine, int selectorCount) {
         this.port = port;
         this.engine = engine;
+        this.selectorCount = Math.max(1, selectorCount);
     }
 
     @Override
     public void run() {
         try {
-            serverSocket = new ServerSocket(port);
-            System.out.println("[TcpMarketServer] Listening on port " + port);
+            selectors = new FeedSelector[selectorCount];
+            for (int i = 0; i < selectorCount; i++) {
+                selectors[i] = new FeedSelector();
+                Thread t = new Thread(selectors[i], "FeedSelector-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("[TcpMarketServer] Listening on port " + port + " (" + selectorCount + " selector threads)");
 
+            int next = 0;
             while (running) {
                 try {
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("[TcpMarketServer] New TCP client: " + clientSocket.getRemoteSocketAddress());
-                    TcpClientHandler handler = new TcpClientHandler(clientSocket, engine);
-                    pool.submit(handler);
+                    SocketChannel channel = serverChannel.accept();
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    System.out.println("[TcpMarketServer] New TCP client: " + channel.getRemoteAddress());
+                    FeedSelector selector = selectors[next++ % selectorCount];
+                    selector.register(new TcpClientHandler(channel, engine, selector));
                 } catch (IOException e) {
                     if (running) System.err.println("[TcpMarketServer] Accept error: " + e.getMessage());
                 }
@@ -42,7 +55,9 @@ public class TcpMarketServer implements Runnable {
 
     public void stop() {
         running = false;
-        try { serverSocket.close(); } catch (IOException ignored) {}
-        pool.shutdown();
+        try { if (serverChannel != null) serverChannel.close(); } catch (IOException ignored) {}
+        if (selectors != null) {
+            for (FeedSelector selector : selectors) if (selector != null) selector.stop();
+        }
     }
 }
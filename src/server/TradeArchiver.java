@@ -1,87 +1,699 @@
 package server;
 
+import common.InstrumentSpec;
 import common.Trade;
+import common.TradePage;
 
 import java.io.*;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Appends trades to one CSV file per symbol and day. The archiver thread drains the queue
+ * in batches, keeps the recently used files open, and flushes every touched file once per
+ * batch, so a busy day costs one write per file per batch instead of an open, write and
+ * close per trade. The queue is bounded: when the disk falls behind, archive() blocks the
+ * matching thread instead of letting memory grow.
+ */
 public class TradeArchiver implements Runnable {
 
-    private final BlockingQueue<Trade> queue = new LinkedBlockingQueue<>();
+    // When the data written by a batch is forced to disk
+    public enum FsyncPolicy {
+        NONE,      // left to the OS; a crash of the machine may lose the last seconds
+        BATCH,     // after every batch, before the next one is taken
+        INTERVAL   // at most once per FSYNC_INTERVAL_MS
+    }
+
+    // TEXT: one CSV line per trade; BINARY: fixed-width records, see TradeRecordFile
+    public enum Format { TEXT, BINARY }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+    public static final int DEFAULT_CACHE_TRADES = 500_000;
+    public static final int MAX_PAGE = 10_000;
+    private static final int MAX_TEXT_INDEXES = 256;
+    private static final int MAX_BATCH = 4096;
+    private static final int MAX_OPEN_FILES = 64;
+    private static final long FSYNC_INTERVAL_MS = 1000;
+
+    private final BlockingQueue<Trade> queue;
     private final String archiveDir;
+    private final FsyncPolicy fsync;
+    private final Format format;
+    private final TradeDayCache cache;
+    // Held by the archiver thread while a batch goes to disk and into the cache. A query
+    // loading a day looks up the file's length under it, reads without it, and checks the
+    // length again under it before caching, so a cached day holds exactly the batches on disk
+    private final Object loadLock = new Object();
+    private long lastHits, lastMisses;
+    // Sparse indexes of the CSV days paged through lately, by file name
+    private final Map<String, TradeTimeIndex> textIndexes = new LinkedHashMap<String, TradeTimeIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TradeTimeIndex> eldest) {
+            return size() > MAX_TEXT_INDEXES;
+        }
+    };
+    private final Map<String, InstrumentSpec> specs = new ConcurrentHashMap<>();
+    // Only touched by the archiver thread, in access order; trimmed to MAX_OPEN_FILES after each batch
+    private final LinkedHashMap<String, ArchiveFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<ArchiveFile> touched = new ArrayList<>();
+    // Run by the archiver thread between batches, so they never race its open files
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // The console line of each trade is written here rather than on the matching thread
+    private final StringBuilder tradeLog = new StringBuilder();
+    private final Formatter tradeLogFormat = new Formatter(tradeLog);
+    private long lastFsync;
+    private boolean unsynced;
     private volatile boolean running = true;
     private static final DateTimeFormatter DAY_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
     public TradeArchiver(String archiveDir) {
+        this(archiveDir, DEFAULT_QUEUE_CAPACITY, FsyncPolicy.NONE, Format.TEXT, DEFAULT_CACHE_TRADES);
+    }
+
+    // cacheTrades 0 turns the day cache off
+    public TradeArchiver(String archiveDir, int queueCapacity, FsyncPolicy fsync, Format format, int cacheTrades) {
         this.archiveDir = archiveDir;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.fsync = fsync;
+        this.format = format;
+        this.cache = new TradeDayCache(cacheTrades);
         new File(archiveDir).mkdirs();
     }
 
+    // Needed to turn archived decimal prices back into ticks and lots
+    public void registerInstrument(String symbol, InstrumentSpec spec) {
+        specs.put(symbol, spec);
+    }
+
+    // Blocks while the queue is full, which holds the calling matching thread back to disk speed
     public void archive(Trade trade) {
-        queue.offer(trade);
+        try {
+            queue.put(trade);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("[TradeArchiver] Interrupted, trade not archived: " + trade);
+        }
     }
 
+    // Not an interrupt: one landing in force() would close the file's channel
     public void stop() {
         running = false;
-        Thread.currentThread().interrupt();
     }
 
     @Override
     public void run() {
-        while (running) {
+        List<Trade> batch = new ArrayList<>(MAX_BATCH);
+        // whatever was queued before the stop still goes to disk
+        while (running || !queue.isEmpty()) {
             try {
-                Trade trade = queue.take();
-                writeTrade(trade);
+                Trade first = queue.poll(200, TimeUnit.MILLISECONDS);
+                runTasks();
+                if (first == null) {
+                    if (unsynced) syncOpenFiles();  // INTERVAL: the last batch before a quiet spell
+                    continue;
+                }
+                batch.add(first);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
             }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            logTrades(batch);
+            writeBatch(batch);
+        }
+        runTasks();
+        for (ArchiveFile file : openFiles.values()) file.close(fsync != FsyncPolicy.NONE);
+        openFiles.clear();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) task.run();
+    }
+
+    public String getArchiveDir() {
+        return archiveDir;
+    }
+
+    /**
+     * Swaps a day file for its gzip copy, written by the caller from the first sourceLength
+     * bytes of it. Done on the archiver thread: the file is closed there first, and left as
+     * it is if it grew in the meantime, so no trade is lost. Completes with whether the
+     * swap was made.
+     */
+    public CompletableFuture<Boolean> replaceWithCompressed(File source, File compressed, long sourceLength) {
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        tasks.add(() -> {
+            synchronized (loadLock) {
+                try {
+                    ArchiveFile open = openFiles.remove(source.getName());
+                    if (open != null) open.close(fsync != FsyncPolicy.NONE);
+                    if (source.length() != sourceLength) {
+                        Files.deleteIfExists(compressed.toPath());
+                        done.complete(false);
+                        return;
+                    }
+                    Files.move(compressed.toPath(), Paths.get(source.getPath() + ".gz"),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    Files.delete(source.toPath());
+                    synchronized (textIndexes) {
+                        textIndexes.remove(source.getName());
+                    }
+                    done.complete(true);
+                } catch (IOException e) {
+                    done.completeExceptionally(e);
+                }
+            }
+        });
+        return done;
+    }
+
+    // Reads a whole compacted day the way a query loads it, for the compactor to time; -1 if its symbol is unknown
+    int readCompressedDay(File compressed) throws IOException {
+        String name = compressed.getName();
+        int sep = name.lastIndexOf('_');
+        InstrumentSpec spec = sep < 0 ? null : specs.get(name.substring(0, sep));
+        if (spec == null) return -1;
+        return readFile(compressed, Long.MAX_VALUE, name.substring(0, sep), spec, Long.MIN_VALUE, Long.MAX_VALUE).size();
+    }
+
+    // One console write per batch
+    private void logTrades(List<Trade> batch) {
+        tradeLog.setLength(0);
+        for (Trade trade : batch) {
+            tradeLogFormat.format("[TradeArchiver] TRADE %s: %.4f @ %.2f (buyer=%d, seller=%d)%n",
+                    trade.getSymbol(), trade.getQuantity(), trade.getPrice(),
+                    trade.getBuyerClientId(), trade.getSellerClientId());
+        }
+        System.out.print(tradeLog);
+    }
+
+    private void writeBatch(List<Trade> batch) {
+        synchronized (loadLock) {
+            writeAndCache(batch);
+        }
+    }
+
+    private void writeAndCache(List<Trade> batch) {
+        for (Trade trade : batch) {
+            ArchiveFile file = fileFor(trade);
+            if (file == null) continue;
+            try {
+                file.write(trade);
+                if (cache.isEnabled()) file.batch.add(trade);
+                if (!file.touched) {
+                    file.touched = true;
+                    touched.add(file);
+                }
+            } catch (IOException e) {
+                System.err.println("[TradeArchiver] Error writing trade: " + e.getMessage());
+            }
+        }
+        batch.clear();
+
+        boolean sync = fsync == FsyncPolicy.BATCH
+                || (fsync == FsyncPolicy.INTERVAL && System.currentTimeMillis() - lastFsync >= FSYNC_INTERVAL_MS);
+        for (ArchiveFile file : touched) {
+            file.touched = false;
+            try {
+                file.flush(sync);
+            } catch (IOException e) {
+                System.err.println("[TradeArchiver] Error flushing " + file.name + ": " + e.getMessage());
+            }
+            if (cache.isEnabled()) {
+                cache.append(file.key, file.batch, file.created);
+                file.batch.clear();
+            }
+            file.created = false;
+        }
+        touched.clear();
+        if (sync) lastFsync = System.currentTimeMillis();
+        unsynced = fsync == FsyncPolicy.INTERVAL && !sync;
+
+        // Closing between batches, not mid-batch, so more open days than the limit cost one open per batch
+        Iterator<ArchiveFile> eldest = openFiles.values().iterator();
+        for (int extra = openFiles.size() - MAX_OPEN_FILES; extra > 0; extra--) {
+            eldest.next().close(fsync != FsyncPolicy.NONE);
+            eldest.remove();
         }
-        Trade trade;
-        while ((trade = queue.poll()) != null) {
-            writeTrade(trade);
+    }
+
+    private void syncOpenFiles() {
+        for (ArchiveFile file : openFiles.values()) {
+            try {
+                file.sync();
+            } catch (IOException e) {
+                System.err.println("[TradeArchiver] Error syncing " + file.name + ": " + e.getMessage());
+            }
         }
+        unsynced = false;
+        lastFsync = System.currentTimeMillis();
     }
 
-    private void writeTrade(Trade trade) {
+    private ArchiveFile fileFor(Trade trade) {
         String day = trade.getTimestamp().toLocalDate().format(DAY_FMT);
-        String filename = archiveDir + File.separator + trade.getSymbol() + "_" + day + ".csv";
-        try (FileWriter fw = new FileWriter(filename, true);
-             PrintWriter pw = new PrintWriter(fw)) {
-            pw.println(trade.toString());  //1 red - 1 trade
+        String key = trade.getSymbol() + "_" + day;
+        String name = key + (format == Format.BINARY ? ".bin" : ".csv");
+        ArchiveFile file = openFiles.get(name);
+        if (file != null) return file;
+        try {
+            String path = archiveDir + File.separator + name;
+            File compacted = new File(path + ".gz");
+            if (compacted.exists()) restore(compacted, new File(path));
+            long existing = new File(path).length();
+            file = format == Format.BINARY ? new BinaryFile(name, path) : new TextFile(name, path);
+            file.key = key;
+            // nothing of this day on disk yet: the cache can hold all of it from the start
+            file.created = existing <= (format == Format.BINARY ? TradeRecordFile.HEADER_SIZE : 0);
         } catch (IOException e) {
-            System.err.println("[TradeArchiver] Error writing trade: " + e.getMessage());
+            System.err.println("[TradeArchiver] Error opening " + name + ": " + e.getMessage());
+            return null;
+        }
+        openFiles.put(name, file);
+        return file;
+    }
+
+    // A trade for a day already compacted: the day goes back to a plain file, to be compacted again later
+    private void restore(File compacted, File plain) throws IOException {
+        System.out.println("[TradeArchiver] Late trade for compacted " + plain.getName() + ", decompressing it");
+        if (!plain.exists()) {
+            Path tmp = Paths.get(plain.getPath() + ".tmp");
+            try (InputStream in = openCompressed(compacted)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(tmp, plain.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        // a plain file next to the .gz is the newer one: the .gz was made from a prefix of it
+        Files.delete(compacted.toPath());
+    }
+
+    // An open archive file; closing it flushes (and with a sync policy, forces) what is still buffered
+    private abstract static class ArchiveFile {
+        final String name;
+        String key;
+        boolean touched;
+        boolean created;
+        // written by the current batch, for the cache
+        final List<Trade> batch = new ArrayList<>();
+
+        ArchiveFile(String name) {
+            this.name = name;
+        }
+
+        abstract void write(Trade trade) throws IOException;
+
+        abstract void flush(boolean sync) throws IOException;
+
+        void sync() throws IOException {
+            flush(true);
+        }
+
+        abstract void closeFile(boolean sync) throws IOException;
+
+        void close(boolean sync) {
+            try {
+                closeFile(sync);
+            } catch (IOException e) {
+                System.err.println("[TradeArchiver] Error closing " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class TextFile extends ArchiveFile {
+        private final FileOutputStream out;
+        private final BufferedWriter writer;
+
+        TextFile(String name, String path) throws IOException {
+            super(name);
+            out = new FileOutputStream(path, true);
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        @Override
+        void write(Trade trade) throws IOException {
+            writer.write(trade.toString());  //1 red - 1 trade
+            writer.newLine();
+        }
+
+        @Override
+        void flush(boolean sync) throws IOException {
+            writer.flush();
+            if (sync) out.getChannel().force(false);
+        }
+
+        @Override
+        void closeFile(boolean sync) throws IOException {
+            flush(sync);
+            writer.close();
+        }
+    }
+
+    private static final class BinaryFile extends ArchiveFile {
+        private final TradeRecordFile.Writer writer;
+
+        BinaryFile(String name, String path) throws IOException {
+            super(name);
+            writer = new TradeRecordFile.Writer(Paths.get(path));
+        }
+
+        @Override
+        void write(Trade trade) throws IOException {
+            writer.append(trade);
+        }
+
+        @Override
+        void flush(boolean sync) throws IOException {
+            writer.flush(sync);
+        }
+
+        @Override
+        void closeFile(boolean sync) throws IOException {
+            writer.close(sync);
         }
     }
 
     //Read trades for a given symbol and day from the archive.
     
     public List<Trade> getTradesForDay(String symbol, String day) {
-        List<Trade> result = new ArrayList<>();
-        String filename = archiveDir + File.separator + symbol + "_" + day + ".csv";
-        File f = new File(filename);
-        if (!f.exists()) return result;
+        return getTradesBetween(symbol, day, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Trades of one day with fromMillis <= time <= toMillis (epoch millis of the simulation
+     * time, UTC). The file of the configured format is read, or the other one if the day
+     * was only ever archived in that format.
+     */
+    public List<Trade> getTradesBetween(String symbol, String day, long fromMillis, long toMillis) {
+        InstrumentSpec spec = specs.get(symbol);
+        if (spec == null) return new ArrayList<>();
+        String key = symbol + "_" + day;
+        if (cache.isEnabled()) {
+            List<Trade> cached = cache.get(key, fromMillis, toMillis);
+            if (cached != null) return cached;
+        }
+
+        // Only the lookup holds the archiver back, never the read itself
+        File file;
+        long length;
+        synchronized (loadLock) {
+            file = dayFile(symbol, day);
+            length = file == null ? 0 : file.length();
+        }
+        if (!cache.isEnabled()) return readDay(symbol, day, file, length, spec, fromMillis, toMillis);
+        List<Trade> all = readDay(symbol, day, file, length, spec, Long.MIN_VALUE, Long.MAX_VALUE);
+        synchronized (loadLock) {
+            // a batch written meanwhile would be in neither the cache nor what was read
+            File now = dayFile(symbol, day);
+            if (now == null ? file == null : now.equals(file) && now.length() == length) cache.load(key, all);
+        }
+        return TradeDayCache.select(all, fromMillis, toMillis);
+    }
+
+    /**
+     * One page of the symbol's trades with from <= time <= to (null for open ends), at most
+     * limit (capped at MAX_PAGE) long, walking the archived days of the range in order. cursor
+     * is null for the first page and the previous page's nextCursor after that ("day:record").
+     * Only the page is held in memory: a cached day is paged in place, a file is entered
+     * at the range or cursor through the binary search or the sparse CSV index. A from
+     * after to, like a bad cursor, is an IllegalArgumentException.
+     */
+    public TradePage getTrades(String symbol, LocalDateTime from, LocalDateTime to, int limit, String cursor) {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException("from " + from + " is after to " + to);
+        }
+        List<Trade> out = new ArrayList<>();
+        InstrumentSpec spec = specs.get(symbol);
+        if (spec == null || limit <= 0) return new TradePage(out, null);
+        int pageSize = Math.min(limit, MAX_PAGE);
+        long fromMillis = from != null ? TradeRecordFile.toMillis(from) : Long.MIN_VALUE;
+        long toMillis = to != null ? TradeRecordFile.toMillis(to) : Long.MAX_VALUE;
+
+        TreeSet<LocalDate> archived = archivedDays(symbol);
+        if (archived.isEmpty()) return new TradePage(out, null);
+        LocalDate day = from != null ? from.toLocalDate() : archived.first();
+        LocalDate lastDay = to != null ? to.toLocalDate() : archived.last();
+        int record = 0;
+        if (cursor != null) {
+            int sep = cursor.indexOf(':');
+            try {
+                day = LocalDate.parse(cursor.substring(0, sep), DAY_FMT);
+                record = Integer.parseInt(cursor.substring(sep + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Bad cursor: " + cursor);
+            }
+        }
+
+        if (day.isAfter(lastDay)) return new TradePage(out, null);
+        // only days with a file, however wide the range
+        for (LocalDate d : archived.subSet(day, true, lastDay, true)) {
+            String dayStr = d.format(DAY_FMT);
+            int next = readDayPage(symbol, dayStr, spec, d.equals(day) ? record : 0, fromMillis, toMillis, pageSize, out);
+            if (out.size() == pageSize) return new TradePage(out, dayStr + ":" + next);
+        }
+        return new TradePage(out, null);
+    }
+
+    // Adds what the day has in the range from record start on; returns the record to continue from
+    private int readDayPage(String symbol, String day, InstrumentSpec spec, int start,
+                            long fromMillis, long toMillis, int limit, List<Trade> out) {
+        if (cache.isEnabled()) {
+            int next = cache.page(symbol + "_" + day, start, fromMillis, toMillis, limit, out);
+            if (next >= 0) return next;
+        }
+        File file = dayFile(symbol, day);
+        if (file == null) return start;
+        try {
+            try {
+                return readFilePage(file, symbol, spec, start, fromMillis, toMillis, limit, out);
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                // compacted between finding and opening it
+                file = dayFile(symbol, day);
+                return file == null ? start : readFilePage(file, symbol, spec, start, fromMillis, toMillis, limit, out);
+            }
+        } catch (IOException e) {
+            System.err.println("[TradeArchiver] Error reading trades: " + e.getMessage());
+            return start;
+        }
+    }
+
+    private int readFilePage(File file, String symbol, InstrumentSpec spec, int start,
+                             long fromMillis, long toMillis, int limit, List<Trade> out) throws IOException {
+        String name = file.getName();
+        if (name.endsWith(".bin")) {
+            return TradeRecordFile.readPage(file.toPath(), symbol, spec, start, fromMillis, toMillis, limit, out);
+        }
+        if (name.endsWith(".bin.gz")) {
+            try (InputStream in = openCompressed(file)) {
+                return TradeRecordFile.readPage(in, symbol, spec, start, fromMillis, toMillis, limit, out);
+            }
+        }
+        if (name.endsWith(".csv.gz")) {
+            try (InputStream in = openCompressed(file)) {
+                return TradeTimeIndex.scan(in, 0, start, Integer.MAX_VALUE, false, fromMillis, toMillis, limit,
+                        line -> parseTradeFromLine(line, symbol), out);
+            }
+        }
+        TradeTimeIndex index;
+        synchronized (textIndexes) {
+            index = textIndexes.computeIfAbsent(name, n -> new TradeTimeIndex(file));
+        }
+        return index.readPage(start, fromMillis, toMillis, limit, line -> parseTradeFromLine(line, symbol), out);
+    }
+
+    // Days with an archive file of the symbol, in order
+    private TreeSet<LocalDate> archivedDays(String symbol) {
+        TreeSet<LocalDate> days = new TreeSet<>();
+        String[] names = new File(archiveDir).list((dir, name) -> name.startsWith(symbol + "_")
+                && (name.endsWith(".csv") || name.endsWith(".bin") || name.endsWith(".gz")));
+        if (names == null) return days;
+        for (String name : names) {
+            try {
+                days.add(LocalDate.parse(name.substring(symbol.length() + 1, symbol.length() + 11), DAY_FMT));
+            } catch (RuntimeException e) {
+                // not a day file of this symbol, e.g. BTC_X_... for a symbol BTC
+            }
+        }
+        return days;
+    }
+
+    public long getCacheHits() { return cache.getHits(); }
+    public long getCacheMisses() { return cache.getMisses(); }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+    // Called periodically; quiet while nobody queries the archive
+    public void logCacheStats() {
+        long hits = cache.getHits(), misses = cache.getMisses();
+        if (hits == lastHits && misses == lastMisses) return;
+        System.out.printf("[TradeArchiver] Day cache: %d hits, %d misses, %d trades held%n", hits, misses, cache.getSize());
+        lastHits = hits;
+        lastMisses = misses;
+    }
+
+    // A plain CSV is read up to length, where the last batch ended when it was looked up
+    private List<Trade> readDay(String symbol, String day, File file, long length, InstrumentSpec spec,
+                                long fromMillis, long toMillis) {
+        if (file == null) return new ArrayList<>();
+        try {
+            try {
+                return readFile(file, length, symbol, spec, fromMillis, toMillis);
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                // compacted between finding and opening it
+                file = dayFile(symbol, day);
+                return file == null ? new ArrayList<>()
+                        : readFile(file, Long.MAX_VALUE, symbol, spec, fromMillis, toMillis);
+            }
+        } catch (IOException e) {
+            System.err.println("[TradeArchiver] Error reading trades: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    private List<Trade> readFile(File file, long length, String symbol, InstrumentSpec spec,
+                                 long fromMillis, long toMillis) throws IOException {
+        List<Trade> result = new ArrayList<>();
+        String name = file.getName();
+        if (name.endsWith(".bin")) return TradeRecordFile.read(file.toPath(), symbol, spec, fromMillis, toMillis);
+        if (name.endsWith(".bin.gz")) {
+            try (InputStream in = openCompressed(file)) {
+                TradeRecordFile.readPage(in, symbol, spec, 0, fromMillis, toMillis, Integer.MAX_VALUE, result);
+            }
+            return result;
+        }
+        InputStream in = name.endsWith(".gz") ? openCompressed(file) : new Prefix(new FileInputStream(file), length);
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
             String line;
             while ((line = br.readLine()) != null) {
                 if (!line.trim().isEmpty()) { //preskace prazne linije
-                    result.add(parseTradeFromLine(line, symbol)); //pretvara text u trade obj
+                    Trade trade = parseTradeFromLine(line, symbol); //pretvara text u trade obj
+                    long time = TradeRecordFile.toMillis(trade.getTimestamp());
+                    if (time >= fromMillis && time <= toMillis) result.add(trade);
                 }
             }
-        } catch (IOException e) {
-            System.err.println("[TradeArchiver] Error reading trades: " + e.getMessage());
         }
         return result;
     }
 
+    /**
+     * The file holding the day: the configured format's, plain or compacted, or else the
+     * other format's. null if the day has no trades archived.
+     */
+    private File dayFile(String symbol, String day) {
+        String base = symbol + "_" + day;
+        String[] order = format == Format.BINARY
+                ? new String[]{".bin", ".bin.gz", ".csv", ".csv.gz"}
+                : new String[]{".csv", ".csv.gz", ".bin", ".bin.gz"};
+        for (String ext : order) {
+            File file = new File(archiveDir, base + ext);
+            if (file.exists()) return file;
+        }
+        return null;
+    }
+
+    // The first length bytes of a file that may be appended to while it is read
+    private static final class Prefix extends FilterInputStream {
+        private long left;
+
+        Prefix(InputStream in, long length) {
+            super(in);
+            this.left = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (left <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) left--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (left <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, left));
+            if (n > 0) left -= n;
+            return n;
+        }
+    }
+
+    // Decompressed while read, nothing is written out
+    private static InputStream openCompressed(File file) throws IOException {
+        return new GZIPInputStream(new FileInputStream(file), 64 * 1024);
+    }
+
+    /**
+     * Writes a .bin next to every CSV day file of a registered symbol that has none yet.
+     * The CSV is kept. Meant for startup, before any trade of those days is archived.
+     * Returns the number of files converted.
+     */
+    public int convertTextArchives() {
+        File[] csvFiles = new File(archiveDir).listFiles((dir, name) -> name.endsWith(".csv"));
+        if (csvFiles == null) return 0;
+        int converted = 0;
+        for (File csv : csvFiles) {
+            String base = csv.getName().substring(0, csv.getName().length() - ".csv".length());
+            int sep = base.lastIndexOf('_');
+            if (sep < 0 || !specs.containsKey(base.substring(0, sep))) continue;
+            File bin = new File(archiveDir, base + ".bin");
+            if (bin.exists()) continue;
+            try {
+                convert(csv, bin, base.substring(0, sep));
+                converted++;
+            } catch (IOException e) {
+                System.err.println("[TradeArchiver] Error converting " + csv.getName() + ": " + e.getMessage());
+            }
+        }
+        if (converted > 0) System.out.println("[TradeArchiver] Converted " + converted + " text archives to binary");
+        return converted;
+    }
+
+    // Written under a temporary name and moved into place, so a half-converted day is never read
+    private void convert(File csv, File bin, String symbol) throws IOException {
+        Path tmp = Paths.get(bin.getPath() + ".tmp");
+        Files.deleteIfExists(tmp);
+        TradeRecordFile.Writer writer = new TradeRecordFile.Writer(tmp);
+        try (BufferedReader br = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                Trade trade = parseLine(line, symbol);
+                if (trade != null) writer.append(trade);
+            }
+        } finally {
+            writer.close(true);
+        }
+        Files.move(tmp, bin.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
     private Trade parseTradeFromLine(String line, String symbol) {
+        Trade trade = parseLine(line, symbol);
+        return trade != null ? trade : new Trade(symbol, specs.get(symbol), 0, 0, -1, -1, java.time.LocalDateTime.now());
+    }
+
+    // null if the line is damaged
+    private Trade parseLine(String line, String symbol) {
         // Format: timestamp | symbol | PRICE: p | QTY: q | BUYER: b | SELLER: s
+        InstrumentSpec spec = specs.get(symbol);
         try {
             String[] parts = line.split("\\|");
             String tsStr = parts[0].trim();
@@ -91,9 +703,9 @@ public class TradeArchiver implements Runnable {
             int seller = Integer.parseInt(parts[5].replace("SELLER:", "").trim());
             java.time.LocalDateTime ts = java.time.LocalDateTime.parse(tsStr,
                     DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-            return new Trade(symbol, price, qty, buyer, seller, ts);
+            return new Trade(symbol, spec, spec.toTicks(price), spec.toLots(qty), buyer, seller, ts);
         } catch (Exception e) {
-            return new Trade(symbol, 0, 0, -1, -1, java.time.LocalDateTime.now());
+            return null;
         }
     }
 }
@@ -0,0 +1,159 @@
+package server;
+
+import common.Trade;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trades of recently used symbol/days, so repeated getTradesForDay calls are answered
+ * from memory. The archiver appends every written batch to the days held here, and
+ * starts a day here when it creates its file, so the current day is never read back
+ * from disk. Older days are loaded once on their first query. Bounded by the total
+ * number of trades held; the least recently used days go first.
+ */
+class TradeDayCache {
+
+    // A day's trades in archive order, so an index here is the record number in the file
+    private static final class Day {
+        final List<Trade> trades = new ArrayList<>();
+        long lastTime = Long.MIN_VALUE;
+        boolean unordered;
+
+        void addAll(List<Trade> more) {
+            for (Trade trade : more) {
+                long time = TradeRecordFile.toMillis(trade.getTimestamp());
+                if (time < lastTime) unordered = true;
+                lastTime = Math.max(lastTime, time);
+                trades.add(trade);
+            }
+        }
+    }
+
+    private final int maxTrades;
+    // Access order, for the LRU; guarded by this
+    private final LinkedHashMap<String, Day> days = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    TradeDayCache(int maxTrades) {
+        this.maxTrades = maxTrades;
+    }
+
+    boolean isEnabled() {
+        return maxTrades > 0;
+    }
+
+    // Copy of the day's trades in the time range, or null (and a miss) if the day is not held
+    List<Trade> get(String key, long fromMillis, long toMillis) {
+        List<Trade> result;
+        synchronized (this) {
+            Day day = days.get(key);
+            if (day == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            result = select(day.trades, fromMillis, toMillis);
+        }
+        hits.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Adds the day's trades in the time range from record start on to out, until out holds
+     * limit. Returns the record after the last one looked at, or -1 (and a miss) if the day
+     * is not held.
+     */
+    int page(String key, int start, long fromMillis, long toMillis, int limit, List<Trade> out) {
+        synchronized (this) {
+            Day day = days.get(key);
+            if (day == null) {
+                misses.incrementAndGet();
+                return -1;
+            }
+            List<Trade> trades = day.trades;
+            int i = start;
+            if (!day.unordered) i = Math.max(i, firstAtOrAfter(trades, fromMillis));
+            for (; i < trades.size() && out.size() < limit; i++) {
+                long time = TradeRecordFile.toMillis(trades.get(i).getTimestamp());
+                if (time < fromMillis) continue;
+                if (time > toMillis) {
+                    if (!day.unordered) return trades.size();
+                    continue;
+                }
+                out.add(trades.get(i));
+            }
+            hits.incrementAndGet();
+            return i;
+        }
+    }
+
+    // A day read from disk; not kept if it alone is over the limit
+    synchronized void load(String key, List<Trade> trades) {
+        if (!isEnabled() || trades.size() > maxTrades) return;
+        Day day = new Day();
+        day.addAll(trades);
+        Day old = days.put(key, day);
+        if (old != null) size -= weight(old);
+        size += weight(day);
+        evict();
+    }
+
+    // Trades just written to the day's file. start is set when the file was created by them.
+    synchronized void append(String key, List<Trade> trades, boolean start) {
+        if (!isEnabled()) return;
+        Day day = days.get(key);
+        if (day == null) {
+            if (!start) return;  // loaded from disk when someone asks for it
+            day = new Day();
+            days.put(key, day);
+        }
+        size -= weight(day);
+        day.addAll(trades);
+        size += weight(day);
+        evict();
+    }
+
+    long getHits() { return hits.get(); }
+    long getMisses() { return misses.get(); }
+
+    synchronized long getSize() { return size; }
+
+    private void evict() {
+        Iterator<Day> eldest = days.values().iterator();
+        while (size > maxTrades && eldest.hasNext()) {
+            size -= weight(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    // An empty day still counts, so queries for days without trades cannot fill the map
+    private static int weight(Day day) {
+        return Math.max(1, day.trades.size());
+    }
+
+    private static int firstAtOrAfter(List<Trade> trades, long millis) {
+        int lo = 0, hi = trades.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (TradeRecordFile.toMillis(trades.get(mid).getTimestamp()) < millis) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Copy of the trades with fromMillis <= time <= toMillis
+    static List<Trade> select(List<Trade> day, long fromMillis, long toMillis) {
+        if (fromMillis == Long.MIN_VALUE && toMillis == Long.MAX_VALUE) return new ArrayList<>(day);
+        List<Trade> result = new ArrayList<>();
+        for (Trade trade : day) {
+            long time = TradeRecordFile.toMillis(trade.getTimestamp());
+            if (time >= fromMillis && time <= toMillis) result.add(trade);
+        }
+        return result;
+    }
+}
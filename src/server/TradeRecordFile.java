@@ -0,0 +1,239 @@
+package server;
+
+import common.InstrumentSpec;
+import common.Trade;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary day file of the trade archive (SYMBOL_yyyy-MM-dd.bin), the fixed-width
+ * alternative to the CSV lines. Readers scan the file in blocks, or binary search it by
+ * time when every record was appended in time order, with no parsing. Reads are positional
+ * rather than mapped: a mapping stays until it is garbage collected, and on Windows that
+ * keeps the compactor and the converter from replacing or deleting the file. A compacted
+ * day (.bin.gz) is the same bytes, read as a stream.
+ *
+ * Header (40 bytes): magic "BTRD" i32, version u16, record size u16, record count i64,
+ *                    min time i64, max time i64, flags i32, reserved i32
+ * Record (32 bytes): time i64 (epoch millis of the simulation time, UTC), price ticks i64,
+ *                    quantity lots i64, buyer i32, seller i32
+ *
+ * The header is rewritten after the records it counts, so a reader never sees a record
+ * count that runs past what is on disk; anything past the count is ignored.
+ */
+final class TradeRecordFile {
+
+    static final int MAGIC = 0x42545244;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 40;
+    static final int RECORD_SIZE = 32;
+    // Set once a record is older than one before it; binary search is then off
+    static final int FLAG_UNORDERED = 1;
+    private static final int BLOCK_RECORDS = 2048;
+
+    private TradeRecordFile() {}
+
+    static long toMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                (int) Math.floorMod(millis, 1000L) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    /**
+     * Trades with fromMillis <= time <= toMillis, in file order. An empty list if the file
+     * does not exist.
+     */
+    static List<Trade> read(Path path, String symbol, InstrumentSpec spec, long fromMillis, long toMillis) throws IOException {
+        List<Trade> result = new ArrayList<>();
+        readPage(path, symbol, spec, 0, fromMillis, toMillis, Integer.MAX_VALUE, result);
+        return result;
+    }
+
+    /**
+     * Adds the trades in the time range from record start on to out, until out holds limit.
+     * Returns the record after the last one looked at; in a time-ordered file the scan
+     * starts at the range and stops at its end, without touching the records outside it.
+     */
+    static int readPage(Path path, String symbol, InstrumentSpec spec, int start,
+                        long fromMillis, long toMillis, int limit, List<Trade> out) throws IOException {
+        if (!path.toFile().exists()) return start;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_SIZE) return start;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(ch, header, 0);
+            if (header.getInt(0) != MAGIC || header.getShort(6) != RECORD_SIZE) {
+                throw new IOException("Not a trade record file: " + path);
+            }
+            int n = (int) Math.min(header.getLong(8), (ch.size() - HEADER_SIZE) / RECORD_SIZE);
+            if (start >= n || toMillis < header.getLong(16) || fromMillis > header.getLong(24)) return n;
+
+            boolean ordered = (header.getInt(32) & FLAG_UNORDERED) == 0;
+            int i = ordered ? Math.max(start, firstAtOrAfter(ch, n, fromMillis)) : start;
+            ByteBuffer records = ByteBuffer.allocate(Math.min(n - i, BLOCK_RECORDS) * RECORD_SIZE);
+            while (i < n && out.size() < limit) {
+                int count = Math.min(n - i, BLOCK_RECORDS);
+                records.clear().limit(count * RECORD_SIZE);
+                readFully(ch, records, HEADER_SIZE + (long) i * RECORD_SIZE);
+                for (int k = 0; k < count && out.size() < limit; k++, i++) {
+                    int at = k * RECORD_SIZE;
+                    long time = records.getLong(at);
+                    if (time < fromMillis) continue;
+                    if (time > toMillis) {
+                        if (ordered) return n;
+                        continue;
+                    }
+                    out.add(new Trade(symbol, spec, records.getLong(at + 8), records.getLong(at + 16),
+                            records.getInt(at + 24), records.getInt(at + 28), fromMillis(time)));
+                }
+            }
+            return i;
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = ch.read(buf, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
+    }
+
+    /**
+     * readPage over a compressed file, read as a stream from the top: records before start
+     * are skipped unread, and in a time-ordered file reading stops at the end of the range.
+     */
+    static int readPage(InputStream in, String symbol, InstrumentSpec spec, int start,
+                        long fromMillis, long toMillis, int limit, List<Trade> out) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        byte[] header = new byte[HEADER_SIZE];
+        data.readFully(header);
+        ByteBuffer h = ByteBuffer.wrap(header);
+        if (h.getInt(0) != MAGIC || h.getShort(6) != RECORD_SIZE) throw new IOException("Not a trade record file");
+        int n = (int) h.getLong(8);
+        if (start >= n || toMillis < h.getLong(16) || fromMillis > h.getLong(24)) return n;
+        boolean ordered = (h.getInt(32) & FLAG_UNORDERED) == 0;
+
+        for (long skip = (long) start * RECORD_SIZE; skip > 0; ) {
+            long skipped = data.skip(skip);
+            if (skipped <= 0) throw new EOFException();
+            skip -= skipped;
+        }
+        int i = start;
+        for (; i < n && out.size() < limit; i++) {
+            long time = data.readLong();
+            long ticks = data.readLong();
+            long lots = data.readLong();
+            int buyer = data.readInt();
+            int seller = data.readInt();
+            if (time < fromMillis) continue;
+            if (time > toMillis) {
+                if (ordered) return n;
+                continue;
+            }
+            out.add(new Trade(symbol, spec, ticks, lots, buyer, seller, fromMillis(time)));
+        }
+        return i;
+    }
+
+    // One 8-byte read per probe
+    private static int firstAtOrAfter(FileChannel ch, int count, long millis) throws IOException {
+        ByteBuffer time = ByteBuffer.allocate(8);
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            time.clear();
+            readFully(ch, time, HEADER_SIZE + (long) mid * RECORD_SIZE);
+            if (time.getLong(0) < millis) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Appends to one day file; used by a single thread
+    static final class Writer {
+        private final FileChannel ch;
+        private final ByteBuffer pending = ByteBuffer.allocateDirect(64 * 1024);
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        private long written;   // records on disk
+        private long count;     // written + pending
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+        private int flags;
+
+        Writer(Path path) throws IOException {
+            ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (ch.size() >= HEADER_SIZE) {
+                ch.read(header, 0);
+                if (header.getInt(0) != MAGIC || header.getShort(6) != RECORD_SIZE) {
+                    ch.close();
+                    throw new IOException("Not a trade record file: " + path);
+                }
+                written = count = header.getLong(8);
+                minTime = header.getLong(16);
+                maxTime = header.getLong(24);
+                flags = header.getInt(32);
+                // records past the count were cut off by a crash before their header
+                ch.truncate(HEADER_SIZE + written * RECORD_SIZE);
+            } else {
+                writeHeader();
+            }
+        }
+
+        void append(Trade trade) throws IOException {
+            if (pending.remaining() < RECORD_SIZE) writePending();
+            long time = toMillis(trade.getTimestamp());
+            pending.putLong(time);
+            pending.putLong(trade.getPriceTicks());
+            pending.putLong(trade.getQuantityLots());
+            pending.putInt(trade.getBuyerClientId());
+            pending.putInt(trade.getSellerClientId());
+            if (time < maxTime) flags |= FLAG_UNORDERED;
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            count++;
+        }
+
+        // Records first, then the header that counts them
+        void flush(boolean sync) throws IOException {
+            writePending();
+            writeHeader();
+            if (sync) ch.force(false);
+        }
+
+        void close(boolean sync) throws IOException {
+            try {
+                flush(sync);
+            } finally {
+                ch.close();
+            }
+        }
+
+        private void writePending() throws IOException {
+            pending.flip();
+            long position = HEADER_SIZE + written * RECORD_SIZE;
+            while (pending.hasRemaining()) position += ch.write(pending, position);
+            written = count;
+            pending.clear();
+        }
+
+        private void writeHeader() throws IOException {
+            header.clear();
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE)
+                    .putLong(written).putLong(minTime).putLong(maxTime).putInt(flags).putInt(0);
+            header.flip();
+            long position = 0;
+            while (header.hasRemaining()) position += ch.write(header, position);
+        }
+    }
+}
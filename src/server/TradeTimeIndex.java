@@ -0,0 +1,203 @@
+package server;
+
+import common.Trade;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Sparse time index of one CSV day file of the archive: the byte offset and time of every
+ * INDEX_EVERY-th trade line. A paged query seeks to the block its range or cursor starts
+ * in and parses from there, instead of reading the day from the top. The index follows
+ * the file as the archiver appends to it; only complete lines are indexed.
+ */
+final class TradeTimeIndex {
+
+    static final int INDEX_EVERY = 1024;
+
+    private final File file;
+    // guarded by this
+    private long[] offsets = new long[16];
+    private long[] times = new long[16];
+    private int entries;
+    private int records;        // trade lines indexed so far
+    private long indexedBytes;  // end of the last complete line
+    private long lastTime = Long.MIN_VALUE;
+    private boolean unordered;
+
+    TradeTimeIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Adds the trades in the time range from record start on to out, until out holds limit.
+     * Returns the record after the last one looked at. A record is a non-empty line, in
+     * file order, the same numbering the day cache and the binary file use.
+     */
+    int readPage(int start, long fromMillis, long toMillis, int limit,
+                 Function<String, Trade> parse, List<Trade> out) throws IOException {
+        int total, block;
+        long offset;
+        boolean ordered;
+        synchronized (this) {
+            refresh();
+            total = records;
+            ordered = !unordered;
+            if (start >= total) return total;
+            int first = start;
+            if (ordered) {
+                // the last block starting before the range; it may still hold its first trades
+                int lo = 0, hi = entries;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (times[mid] < fromMillis) lo = mid + 1;
+                    else hi = mid;
+                }
+                first = Math.max(first, Math.max(0, lo - 1) * INDEX_EVERY);
+            }
+            block = first / INDEX_EVERY;
+            offset = offsets[block];
+            start = first;
+        }
+
+        try (InputStream in = open(offset)) {
+            return scan(in, block * INDEX_EVERY, start, total, ordered, fromMillis, toMillis, limit, parse, out);
+        }
+    }
+
+    /**
+     * Reads trade lines from in, whose first line is record first, up to record total; the
+     * ones from start on in the time range go to out until it holds limit. Also how a
+     * compacted day (.csv.gz) is paged, from the top of its decompressed stream.
+     */
+    static int scan(InputStream in, int first, int start, int total, boolean ordered,
+                    long fromMillis, long toMillis, int limit, Function<String, Trade> parse, List<Trade> out) throws IOException {
+        LineReader lines = new LineReader(in);
+        int record = first;
+        String line;
+        while (record < total && out.size() < limit && (line = lines.next()) != null) {
+            if (!lines.complete) break;
+            if (line.trim().isEmpty()) continue;
+            if (record++ < start) continue;
+            long time = lineMillis(line);
+            if (time < fromMillis) continue;
+            if (time > toMillis) {
+                if (ordered) return total;
+                continue;
+            }
+            out.add(parse.apply(line));
+        }
+        return record;
+    }
+
+    // Indexes the lines appended since the last call
+    private void refresh() throws IOException {
+        long size = file.length();
+        if (size < indexedBytes) reset();  // replaced by a shorter file
+        if (size <= indexedBytes) return;
+        try (InputStream in = open(indexedBytes)) {
+            LineReader lines = new LineReader(in);
+            long lineStart = indexedBytes;
+            String line;
+            while ((line = lines.next()) != null) {
+                if (!lines.complete) break;  // still being written
+                long lineEnd = lineStart + lines.bytes;
+                if (!line.trim().isEmpty()) {
+                    long time = lineMillis(line);
+                    if (records % INDEX_EVERY == 0) add(lineStart, time);
+                    if (time < lastTime) unordered = true;
+                    lastTime = Math.max(lastTime, time);
+                    records++;
+                }
+                lineStart = lineEnd;
+            }
+            indexedBytes = lineStart;
+        }
+    }
+
+    private void add(long offset, long time) {
+        if (entries == offsets.length) {
+            offsets = Arrays.copyOf(offsets, entries * 2);
+            times = Arrays.copyOf(times, entries * 2);
+        }
+        offsets[entries] = offset;
+        times[entries] = time;
+        entries++;
+    }
+
+    private void reset() {
+        entries = 0;
+        records = 0;
+        indexedBytes = 0;
+        lastTime = Long.MIN_VALUE;
+        unordered = false;
+    }
+
+    private InputStream open(long offset) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        in.getChannel().position(offset);
+        return new BufferedInputStream(in, 64 * 1024);
+    }
+
+    // "yyyy-MM-dd HH:mm:ss | ..." read by position, far cheaper than LocalDateTime.parse
+    static long lineMillis(String line) {
+        try {
+            long day = LocalDate.of(digits(line, 0, 4), digits(line, 5, 7), digits(line, 8, 10)).toEpochDay();
+            return (day * 86400L + digits(line, 11, 13) * 3600L + digits(line, 14, 16) * 60L + digits(line, 17, 19)) * 1000L;
+        } catch (RuntimeException e) {
+            return Long.MIN_VALUE;  // a damaged line, never inside a range
+        }
+    }
+
+    private static int digits(String s, int from, int to) {
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException(s);
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    // Lines with their length in bytes; the archive is ASCII, so chars and bytes agree
+    private static final class LineReader {
+        private final InputStream in;
+        private final byte[] buf = new byte[64 * 1024];
+        private int pos, limit;
+        private final StringBuilder sb = new StringBuilder(128);
+        int bytes;
+        boolean complete;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        String next() throws IOException {
+            sb.setLength(0);
+            bytes = 0;
+            while (true) {
+                if (pos == limit) {
+                    limit = in.read(buf, 0, buf.length);
+                    pos = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        complete = false;
+                        return bytes > 0 ? sb.toString() : null;
+                    }
+                }
+                byte b = buf[pos++];
+                bytes++;
+                if (b == '\n') {
+                    complete = true;
+                    int len = sb.length();
+                    if (len > 0 && sb.charAt(len - 1) == '\r') sb.setLength(len - 1);
+                    return sb.toString();
+                }
+                sb.append((char) b);
+            }
+        }
+    }
+}